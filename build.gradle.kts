@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 repositories {
@@ -9,6 +10,20 @@ repositories {
 dependencies {
     compileOnly("net.portswigger.burp.extensions:montoya-api:2025.10")
     implementation("com.google.code.gson:gson:2.13.2")
+
+    // Benchmarks run outside Burp, so the API must be on their classpath
+    jmhImplementation("net.portswigger.burp.extensions:montoya-api:2025.10")
+}
+
+// End-to-end load harness: the extension against a fake Burp and a stand-in server
+val harness: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[harness.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+dependencies {
+    "harnessImplementation"("net.portswigger.burp.extensions:montoya-api:2025.10")
 }
 
 tasks.withType<JavaCompile>().configureEach {
@@ -21,4 +36,28 @@ tasks.named<Jar>("jar") {
     duplicatesStrategy = DuplicatesStrategy.EXCLUDE
     from(configurations.runtimeClasspath.get().filter { it.isDirectory })
     from(configurations.runtimeClasspath.get().filterNot { it.isDirectory }.map { zipTree(it) })
-}
\ No newline at end of file
+}
+// Micro-benchmarks for the hot paths: ./gradlew jmh (add -PjmhIncludes=<regex> to run a subset)
+jmh {
+    jmhVersion = "1.37"
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    (findProperty("jmhIncludes") as String?)?.let { includes = listOf(it) }
+}
+
+// ./gradlew loadTest --args="--rate=5000 --duration=60" (options are listed in LoadDriver)
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the end-to-end load harness against an in-process stand-in server"
+    classpath = harness.runtimeClasspath
+    mainClass = "LoadDriver"
+    maxHeapSize = "1g"
+    val dataDirectory = layout.buildDirectory.dir("harness-data")
+    systemProperty("java.awt.headless", "true")
+    systemProperty("deepbounty.dataDir", dataDirectory.get().asFile.absolutePath)
+    // Start from an empty spool and scope snapshot on every run
+    doFirst { delete(dataDirectory) }
+}
@@ -0,0 +1,375 @@
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.ToolSource;
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.extension.ExtensionUnloadingHandler;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.handler.HttpHandler;
+import burp.api.montoya.http.handler.HttpResponseReceived;
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.MimeType;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.internal.MontoyaObjectFactory;
+import burp.api.montoya.internal.ObjectFactoryLocator;
+import burp.api.montoya.logging.Logging;
+import burp.api.montoya.proxy.ProxyHistoryFilter;
+import burp.api.montoya.proxy.ProxyHttpRequestResponse;
+import burp.api.montoya.sitemap.SiteMap;
+import burp.api.montoya.sitemap.SiteMapFilter;
+import burp.api.montoya.sitemap.SiteMapNode;
+import burp.api.montoya.ui.UserInterface;
+import burp.api.montoya.ui.settings.SettingsPanelBuilder;
+import burp.api.montoya.ui.settings.SettingsPanelSetting;
+import burp.api.montoya.ui.settings.SettingsPanelWithData;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Just enough of the Montoya API to run the extension outside Burp.
+ * <p>
+ * Interfaces are implemented with dynamic proxies answering from a method name to value
+ * map; any other method returns a no-op proxy for interface types, and null, zero or
+ * false otherwise. Montoya's static factories go through {@link ObjectFactoryLocator},
+ * which is pointed at a fake that builds an in-memory settings panel.
+ */
+final class FakeBurp {
+
+    /**
+     * Computed answer to a proxied call
+     */
+    @FunctionalInterface
+    interface Answer {
+        Object answer(Object self, Object[] args);
+    }
+
+    /**
+     * One synthetic or replayed HTTP exchange
+     */
+    record Exchange(ToolType tool, String host, String method, String path, List<HttpHeader> requestHeaders,
+                    byte[] requestBody, int statusCode, MimeType mimeType, List<HttpHeader> responseHeaders,
+                    byte[] responseBody) {
+    }
+
+    private static final AtomicLong GENERATED_BODY_SEEDS = new AtomicLong();
+
+    private final Map<String, Object> settingDefaults = new ConcurrentHashMap<>();
+    private final Map<String, Object> settingOverrides;
+    private final List<HttpHandler> httpHandlers = new CopyOnWriteArrayList<>();
+    private final List<ExtensionUnloadingHandler> unloadingHandlers = new CopyOnWriteArrayList<>();
+    private final List<ProxyHttpRequestResponse> proxyHistory = new ArrayList<>();
+    private final List<HttpRequestResponse> siteMap = new ArrayList<>();
+    private final LongAdder errorsLogged = new LongAdder();
+    private final boolean verbose;
+    private final MontoyaApi api;
+
+    /**
+     * @param settingOverrides values returned instead of the extension's setting defaults
+     * @param verbose          print extension output, not only errors
+     */
+    FakeBurp(Map<String, Object> settingOverrides, boolean verbose) {
+        this.settingOverrides = new ConcurrentHashMap<>(settingOverrides);
+        this.verbose = verbose;
+        ObjectFactoryLocator.FACTORY = fake(MontoyaObjectFactory.class, factoryAnswers());
+
+        Logging logging = fake(Logging.class, Map.of(
+                "logToOutput", (Answer) (self, args) -> {
+                    if (verbose) {
+                        System.out.println("[extension] " + args[0]);
+                    }
+                    return null;
+                },
+                "logToError", (Answer) (self, args) -> {
+                    errorsLogged.increment();
+                    System.err.println("[extension] " + args[0]);
+                    return null;
+                }));
+        UserInterface userInterface = fake(UserInterface.class, Map.of());
+        api = fake(MontoyaApi.class, Map.of(
+                "logging", logging,
+                "userInterface", userInterface,
+                "extension", fake(burp.api.montoya.extension.Extension.class, Map.of(
+                        "registerUnloadingHandler", (Answer) (self, args) -> {
+                            unloadingHandlers.add((ExtensionUnloadingHandler) args[0]);
+                            return null;
+                        })),
+                "http", fake(burp.api.montoya.http.Http.class, Map.of(
+                        "registerHttpHandler", (Answer) (self, args) -> {
+                            httpHandlers.add((HttpHandler) args[0]);
+                            return null;
+                        })),
+                "proxy", fake(burp.api.montoya.proxy.Proxy.class, Map.of(
+                        "history", (Answer) (self, args) -> args.length == 0 ? snapshot(proxyHistory)
+                                : snapshot(proxyHistory).stream()
+                                .filter(((ProxyHistoryFilter) args[0])::matches)
+                                .toList())),
+                "siteMap", fake(SiteMap.class, Map.of(
+                        "requestResponses", (Answer) (self, args) -> args.length == 0 ? snapshot(siteMap)
+                                : snapshot(siteMap).stream()
+                                .filter(item -> ((SiteMapFilter) args[0]).matches(siteMapNode(item)))
+                                .toList()))));
+    }
+
+    private static SiteMapNode siteMapNode(HttpRequestResponse item) {
+        return fake(SiteMapNode.class, Map.of(
+                "url", item.request().url(),
+                "requestResponse", item));
+    }
+
+    /**
+     * Add an exchange to the proxy history and, optionally, to the site map
+     */
+    void addToHistory(Exchange exchange, boolean alsoInSiteMap) {
+        HttpResponseReceived response = responseReceived(exchange);
+        HttpRequest request = response.initiatingRequest();
+        Map<String, Object> item = Map.of(
+                "request", request,
+                "finalRequest", request,
+                "response", response,
+                "originalResponse", response,
+                "hasResponse", true,
+                "url", request.url(),
+                "method", request.method(),
+                "host", exchange.host(),
+                "mimeType", exchange.mimeType());
+        synchronized (this) {
+            proxyHistory.add(fake(ProxyHttpRequestResponse.class, item));
+            if (alsoInSiteMap) {
+                siteMap.add(fake(HttpRequestResponse.class, item));
+            }
+        }
+    }
+
+    private synchronized <T> List<T> snapshot(List<T> items) {
+        return List.copyOf(items);
+    }
+
+    MontoyaApi api() {
+        return api;
+    }
+
+    /**
+     * The handler the extension registered
+     */
+    HttpHandler httpHandler() {
+        if (httpHandlers.isEmpty()) {
+            throw new IllegalStateException("The extension did not register an HTTP handler");
+        }
+        return httpHandlers.get(0);
+    }
+
+    /**
+     * Run the extension's unloading handlers, as Burp does on unload
+     */
+    void unload() {
+        for (ExtensionUnloadingHandler handler : unloadingHandlers) {
+            handler.extensionUnloaded();
+        }
+    }
+
+    long errorsLogged() {
+        return errorsLogged.sum();
+    }
+
+    /**
+     * Build the response Burp would hand to HTTP handlers for an exchange
+     */
+    static HttpResponseReceived responseReceived(Exchange exchange) {
+        HttpService service = fake(HttpService.class, Map.of(
+                "host", exchange.host(),
+                "port", 443,
+                "secure", true));
+        String path = exchange.path();
+        int query = path.indexOf('?');
+        String pathWithoutQuery = query < 0 ? path : path.substring(0, query);
+
+        Map<String, Object> request = new HashMap<>(headerAnswers(exchange.requestHeaders()));
+        request.put("httpService", service);
+        request.put("url", "https://" + exchange.host() + path);
+        request.put("method", exchange.method());
+        request.put("path", path);
+        request.put("pathWithoutQuery", pathWithoutQuery);
+        request.put("query", query < 0 ? "" : path.substring(query + 1));
+        request.put("body", byteArray(exchange.requestBody()));
+        HttpRequest initiatingRequest = fake(HttpRequest.class, request);
+
+        ToolSource toolSource = fake(ToolSource.class, Map.of(
+                "toolType", exchange.tool(),
+                "isFromTool", (Answer) (self, args) -> List.of((ToolType[]) args[0]).contains(exchange.tool())));
+
+        Map<String, Object> response = new HashMap<>(headerAnswers(exchange.responseHeaders()));
+        response.put("initiatingRequest", initiatingRequest);
+        response.put("toolSource", toolSource);
+        response.put("statusCode", (short) exchange.statusCode());
+        response.put("inferredMimeType", exchange.mimeType());
+        response.put("statedMimeType", exchange.mimeType());
+        response.put("mimeType", exchange.mimeType());
+        response.put("body", byteArray(exchange.responseBody()));
+        return fake(HttpResponseReceived.class, response);
+    }
+
+    /**
+     * The same response with a generated body of the given length. Every call to body()
+     * returns different content, so large bodies are neither deduplicated nor kept in heap.
+     */
+    static HttpResponseReceived withGeneratedBody(HttpResponseReceived response, int length) {
+        return (HttpResponseReceived) Proxy.newProxyInstance(FakeBurp.class.getClassLoader(),
+                new Class<?>[]{HttpResponseReceived.class},
+                (proxy, method, args) -> method.getName().equals("body") && method.getParameterCount() == 0
+                        ? generatedBody(GENERATED_BODY_SEEDS.incrementAndGet(), 0, length)
+                        : method.invoke(response, args));
+    }
+
+    private static ByteArray generatedBody(long seed, int offset, int length) {
+        return fake(ByteArray.class, Map.of(
+                "length", length,
+                "getBytes", (Answer) (self, args) -> {
+                    byte[] bytes = new byte[length];
+                    for (int i = 0; i < length; i++) {
+                        long mixed = (seed * 0x9E3779B97F4A7C15L) ^ ((offset + i) * 0xC2B2AE3D27D4EB4FL);
+                        bytes[i] = (byte) ('a' + Math.floorMod(Long.hashCode(mixed), 26));
+                    }
+                    return bytes;
+                },
+                "subArray", (Answer) (self, args) -> {
+                    int start = (Integer) args[0];
+                    return generatedBody(seed, offset + start, (Integer) args[1] - start);
+                }));
+    }
+
+    static HttpHeader header(String name, String value) {
+        return fake(HttpHeader.class, Map.of("name", name, "value", value, "toString", name + ": " + value));
+    }
+
+    private static Map<String, Object> headerAnswers(List<HttpHeader> headers) {
+        return Map.of(
+                "headers", headers,
+                "hasHeader", (Answer) (self, args) -> findHeader(headers, args[0]) != null,
+                "header", (Answer) (self, args) -> findHeader(headers, args[0]),
+                "headerValue", (Answer) (self, args) -> {
+                    HttpHeader header = findHeader(headers, args[0]);
+                    return header == null ? null : header.value();
+                });
+    }
+
+    private static HttpHeader findHeader(List<HttpHeader> headers, Object name) {
+        if (!(name instanceof String wanted)) {
+            return null;
+        }
+        for (HttpHeader header : headers) {
+            if (header.name().equalsIgnoreCase(wanted)) {
+                return header;
+            }
+        }
+        return null;
+    }
+
+    private static ByteArray byteArray(byte[] bytes) {
+        return fake(ByteArray.class, Map.of(
+                "getBytes", (Answer) (self, args) -> bytes.clone(),
+                "length", bytes.length,
+                "subArray", (Answer) (self, args) ->
+                        byteArray(Arrays.copyOfRange(bytes, (Integer) args[0], (Integer) args[1]))));
+    }
+
+    /**
+     * Static factory calls: settings panels are built in memory, with setting values
+     * read from the overrides first and the declared defaults second
+     */
+    private Map<String, Object> factoryAnswers() {
+        Answer setting = (self, args) -> {
+            settingDefaults.put((String) args[0], defaultOf(args));
+            return fake(SettingsPanelSetting.class, Map.of());
+        };
+        Answer read = (self, args) -> settingOverrides.getOrDefault(args[0], settingDefaults.get(args[0]));
+        Answer write = (self, args) -> settingOverrides.put((String) args[0], args[1]);
+
+        SettingsPanelWithData panel = fake(SettingsPanelWithData.class, Map.of(
+                "getString", read,
+                "getInteger", read,
+                "getBoolean", read,
+                "setString", write,
+                "setInteger", write,
+                "setBoolean", write));
+        Answer returnSelf = (self, args) -> self;
+        SettingsPanelBuilder builder = fake(SettingsPanelBuilder.class, Map.of(
+                "withPersistence", returnSelf,
+                "withTitle", returnSelf,
+                "withDescription", returnSelf,
+                "withSettings", returnSelf,
+                "withKeywords", returnSelf,
+                "build", panel));
+
+        return Map.of(
+                "settingsPanel", builder,
+                "stringSetting", setting,
+                "integerSetting", setting,
+                "booleanSetting", setting,
+                "listSetting", setting);
+    }
+
+    /**
+     * Default value of a setting declaration: the last argument, or the first option of a list
+     */
+    private static Object defaultOf(Object[] args) {
+        if (args.length < 2) {
+            return null;
+        }
+        Object last = args[args.length - 1];
+        if (last instanceof String[] options) {
+            return options.length > 0 ? options[0] : null;
+        }
+        return last;
+    }
+
+    /**
+     * Implement an interface from a method name to value (or {@link Answer}) map
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T fake(Class<T> type, Map<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(FakeBurp.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    Object[] arguments = args == null ? new Object[0] : args;
+                    Object answer = answers.get(method.getName());
+                    if (answer instanceof Answer computed) {
+                        return computed.answer(proxy, arguments);
+                    }
+                    if (answer != null || answers.containsKey(method.getName())) {
+                        return answer;
+                    }
+                    switch (method.getName()) {
+                        case "toString":
+                            return "Fake" + type.getSimpleName();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == arguments[0];
+                        default:
+                            break;
+                    }
+
+                    Class<?> returnType = method.getReturnType();
+                    if (returnType == void.class) {
+                        return null;
+                    }
+                    if (returnType.isPrimitive()) {
+                        // The zero value of the primitive type, boxed
+                        return Array.get(Array.newInstance(returnType, 1), 0);
+                    }
+                    if (returnType.isInterface()) {
+                        return fake(returnType, Map.of());
+                    }
+                    return null;
+                });
+    }
+}
@@ -0,0 +1,550 @@
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.handler.HttpHandler;
+import burp.api.montoya.http.handler.HttpResponseReceived;
+import burp.api.montoya.http.message.HttpHeader;
+import burp.api.montoya.http.message.MimeType;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load harness: loads the extension against a {@link FakeBurp} and a
+ * {@link StandInServer}, then feeds responses through the registered HTTP handler at a
+ * controlled rate, as Burp's proxy threads would.
+ * <p>
+ * Reports the rate the server actually received records at, handler latency percentiles
+ * and the heap high-water mark. Runs entirely on the loopback interface. With
+ * {@code --min-records-per-sec} or {@code --max-handler-p99-us} it exits with status 1
+ * when the run misses the target, so it can gate a CI job.
+ * <pre>
+ *   ./gradlew loadTest --args="--rate=5000 --duration=60 --latency-ms=20 --error-rate=0.05"
+ * </pre>
+ * Options (defaults in brackets): rate, records offered per second, 0 for unthrottled [2000];
+ * duration, seconds [30]; threads, calling threads [4]; hosts, distinct target hosts [200];
+ * in-scope-ratio [0.8]; scope-size, extra scope entries [1000]; body-size, bytes [2048];
+ * distinct, exchanges generated up front and cycled [4096]; latency-ms, server latency [0];
+ * error-rate, share of 429/503 ingest answers [0]; churn-ms and churn-size, scope churn [0, 10];
+ * format, json or binary [json]; replay, JSON lines file of records in the ingest format;
+ * history, exchanges for out-of-scope hosts put in the proxy history (half also in the site
+ * map) whose hosts are added to the scope when the run starts, to measure the backfill [0];
+ * nodes, ingest nodes traffic is sharded over, the first one also serving the scope [1];
+ * fail-node-after, seconds into the run after which the last node is stopped, 0 to keep
+ * it up [0]; large-body-ratio, share of exchanges whose response body is replaced by a
+ * generated one of large-body-size bytes, to exercise uploads and truncation [0, 8388608];
+ * report, JSON file for the results; seed [42]; verbose.
+ */
+public final class LoadDriver {
+
+    private static final String OPTION_PREFIX = "--";
+
+    private LoadDriver() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = parseArgs(argv);
+        int rate = intArg(args, "rate", 2000);
+        int durationSeconds = intArg(args, "duration", 30);
+        int threads = intArg(args, "threads", 4);
+        int hosts = intArg(args, "hosts", 200);
+        double inScopeRatio = doubleArg(args, "in-scope-ratio", 0.8);
+        int scopeSize = intArg(args, "scope-size", 1000);
+        int bodySize = intArg(args, "body-size", 2048);
+        int distinct = intArg(args, "distinct", 4096);
+        int history = intArg(args, "history", 0);
+        double largeBodyRatio = doubleArg(args, "large-body-ratio", 0);
+        int largeBodySize = intArg(args, "large-body-size", 8 * 1024 * 1024);
+        int nodeCount = Math.max(1, intArg(args, "nodes", 1));
+        int failNodeAfterSeconds = intArg(args, "fail-node-after", 0);
+        long seed = intArg(args, "seed", 42);
+        boolean verbose = args.containsKey("verbose");
+
+        StandInServer.Options serverOptions = new StandInServer.Options(
+                intArg(args, "latency-ms", 0),
+                doubleArg(args, "error-rate", 0),
+                intArg(args, "churn-ms", 0),
+                intArg(args, "churn-size", 10),
+                intArg(args, "delta-history", 100));
+
+        // Scope: filler entries first, so churn replaces them before the targets
+        int inScopeHosts = (int) Math.round(hosts * inScopeRatio);
+        List<String> scope = new ArrayList<>();
+        for (int i = 0; i < scopeSize; i++) {
+            scope.add("*.filler-" + i + ".example.test");
+        }
+        for (int i = 0; i < inScopeHosts; i++) {
+            scope.add("*.target-" + i + ".example.test");
+        }
+
+        StandInServer server = new StandInServer(0, serverOptions, scope);
+        server.start();
+        // Extra ingest nodes: same failure modes, but no scope churn of their own
+        List<StandInServer> nodes = new ArrayList<>(List.of(server));
+        StandInServer.Options nodeOptions = new StandInServer.Options(serverOptions.latencyMs(),
+                serverOptions.errorRate(), 0, 0, serverOptions.deltaHistory());
+        for (int i = 1; i < nodeCount; i++) {
+            StandInServer node = new StandInServer(0, nodeOptions, List.of());
+            node.start();
+            nodes.add(node);
+        }
+
+        Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put("DeepBounty Server URL", server.url());
+        if (nodeCount > 1) {
+            settings.put("Ingest Endpoints (comma-separated, empty = server URL)",
+                    String.join(",", nodes.stream().map(StandInServer::url).toList()));
+        }
+        settings.put("Burpsuite Key", "load-harness");
+        // The stand-in server is plain HTTP/1.1
+        settings.put("Use HTTP/2", false);
+        if ("binary".equalsIgnoreCase(args.get("format"))) {
+            settings.put("Batch Wire Format", IngestBatcher.WireFormat.BINARY.label());
+        }
+
+        FakeBurp burp = new FakeBurp(settings, verbose);
+        Random random = new Random(seed);
+        if (history > 0) {
+            List<FakeBurp.Exchange> items = syntheticExchanges(history, hosts, bodySize, random, HISTORY_DOMAIN);
+            for (int i = 0; i < items.size(); i++) {
+                burp.addToHistory(items.get(i), i % 2 == 0);
+            }
+            nodes.forEach(node -> node.trackHostSuffix(HISTORY_DOMAIN));
+        }
+        new Extension().initialize(burp.api());
+        HttpHandler handler = burp.httpHandler();
+        waitForScope(server);
+
+        List<HttpResponseReceived> exchanges = args.containsKey("replay")
+                ? replay(Path.of(args.get("replay")))
+                : syntheticExchanges(distinct, hosts, bodySize, random, TARGET_DOMAIN).stream()
+                .map(FakeBurp::responseReceived)
+                .map(response -> random.nextDouble() < largeBodyRatio
+                        ? FakeBurp.withGeneratedBody(response, largeBodySize) : response)
+                .toList();
+        System.out.printf(Locale.ROOT, "Stand-in server on %s (%d ingest nodes), %d scope entries, %d exchanges, "
+                        + "%s records/s for %d s%n", server.url(), nodeCount, scope.size(), exchanges.size(),
+                rate == 0 ? "unthrottled" : rate, durationSeconds);
+
+        HeapSampler heap = new HeapSampler();
+        heap.start();
+        LatencyHistogram handlerLatency = new LatencyHistogram();
+        AtomicLong offered = new AtomicLong();
+        long receivedBefore = recordsReceived(nodes);
+
+        long start = System.nanoTime();
+        if (history > 0) {
+            // Bring the history hosts into scope: the extension backfills them while the run goes on
+            List<String> expansion = new ArrayList<>();
+            for (int i = 0; i < hosts; i++) {
+                expansion.add("*.target-" + i + HISTORY_DOMAIN);
+            }
+            server.expandScope(expansion);
+        }
+        long deadline = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        CountDownLatch finished = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread caller = new Thread(() -> {
+                try {
+                    drive(handler, exchanges, offset, threads, rate, deadline, handlerLatency, offered);
+                } finally {
+                    finished.countDown();
+                }
+            }, "load-driver-" + t);
+            caller.setDaemon(true);
+            caller.start();
+        }
+        StandInServer failingNode = nodes.get(nodes.size() - 1);
+        long failedNodeRecords = -1;
+        if (failNodeAfterSeconds > 0 && nodeCount > 1
+                && !finished.await(failNodeAfterSeconds, TimeUnit.SECONDS)) {
+            // Its hosts should move to the other nodes, along with what was spooled for it
+            failingNode.stop();
+            failedNodeRecords = failingNode.recordsReceived();
+            System.out.printf(Locale.ROOT, "Stopped ingest node %s after %d s%n", failingNode.url(),
+                    failNodeAfterSeconds);
+        }
+        finished.await();
+        long runNanos = System.nanoTime() - start;
+        long receivedDuringRun = recordsReceived(nodes) - receivedBefore;
+
+        // Unload flushes the queue; whatever is still buffered is delivered or spooled
+        long unloadStart = System.nanoTime();
+        burp.unload();
+        long unloadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - unloadStart);
+        heap.stop();
+        nodes.forEach(StandInServer::stop);
+
+        double runSeconds = runNanos / 1e9;
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("durationSeconds", round(runSeconds));
+        report.put("offeredRecords", offered.get());
+        report.put("offeredRecordsPerSec", round(offered.get() / runSeconds));
+        report.put("serverRecordsDuringRun", receivedDuringRun);
+        report.put("sustainedRecordsPerSec", round(receivedDuringRun / runSeconds));
+        report.put("serverRecordsAfterUnload", recordsReceived(nodes) - receivedBefore);
+        report.put("unloadMillis", unloadMillis);
+        report.put("handlerP50Micros", round(handlerLatency.percentileMicros(50)));
+        report.put("handlerP99Micros", round(handlerLatency.percentileMicros(99)));
+        report.put("handlerP999Micros", round(handlerLatency.percentileMicros(99.9)));
+        report.put("handlerMaxMicros", handlerLatency.maxMicros());
+        report.put("heapHighWaterMB", round(heap.peakBytes() / 1048576.0));
+        report.put("heapAfterGcHighWaterMB", round(heap.peakAfterGcBytes() / 1048576.0));
+        if (history > 0) {
+            long lastBackfilled = nodes.stream().mapToLong(StandInServer::lastTrackedRecordNanos).max().orElse(0);
+            report.put("backfillRecords", nodes.stream().mapToLong(StandInServer::trackedRecords).sum());
+            report.put("backfillSeconds", lastBackfilled == 0 ? -1 : round((lastBackfilled - start) / 1e9));
+        }
+        report.put("extensionErrorsLogged", burp.errorsLogged());
+        report.put("server", server.stats());
+        if (nodeCount > 1) {
+            Map<String, Object> nodeRecords = new LinkedHashMap<>();
+            for (StandInServer node : nodes) {
+                nodeRecords.put(node.url(), node == failingNode && failedNodeRecords >= 0
+                        ? failedNodeRecords + " (stopped)" : node.recordsReceived());
+            }
+            report.put("nodeRecords", nodeRecords);
+        }
+
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        String json = gson.toJson(report);
+        System.out.println(json);
+        if (args.containsKey("report")) {
+            Path file = Path.of(args.get("report"));
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Files.writeString(file, json, StandardCharsets.UTF_8);
+        }
+
+        List<String> failures = new ArrayList<>();
+        if (args.containsKey("min-records-per-sec")
+                && receivedDuringRun / runSeconds < doubleArg(args, "min-records-per-sec", 0)) {
+            failures.add("sustained rate below " + args.get("min-records-per-sec") + " records/s");
+        }
+        if (args.containsKey("max-handler-p99-us")
+                && handlerLatency.percentileMicros(99) > doubleArg(args, "max-handler-p99-us", 0)) {
+            failures.add("handler p99 above " + args.get("max-handler-p99-us") + " us");
+        }
+        if (!failures.isEmpty()) {
+            System.err.println("Load test failed: " + String.join(", ", failures));
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Call the handler on a fixed schedule until the deadline. Each thread takes every
+     * {@code stride}-th exchange and an equal share of the rate; a thread that falls behind
+     * its schedule calls again immediately rather than skipping slots.
+     */
+    private static void drive(HttpHandler handler, List<HttpResponseReceived> exchanges, int offset, int stride,
+                              int rate, long deadline, LatencyHistogram latency, AtomicLong offered) {
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(stride) / rate : 0;
+        long next = System.nanoTime();
+        int index = offset;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= deadline) {
+                return;
+            }
+            if (interval > 0 && next > now) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            HttpResponseReceived exchange = exchanges.get(index % exchanges.size());
+            index += stride;
+
+            long callStart = System.nanoTime();
+            handler.handleHttpResponseReceived(exchange);
+            latency.record(System.nanoTime() - callStart);
+            offered.incrementAndGet();
+            next += interval;
+        }
+    }
+
+    /**
+     * Block until the extension has pulled the scope, so the run does not start with
+     * everything out of scope
+     */
+    private static long recordsReceived(List<StandInServer> nodes) {
+        return nodes.stream().mapToLong(StandInServer::recordsReceived).sum();
+    }
+
+    private static void waitForScope(StandInServer server) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (server.stats().get("scopeDownloads") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        // Give the extension time to compile the matcher after the download
+        Thread.sleep(200);
+    }
+
+    // ----- traffic -----
+
+    private static final ToolType[] TOOLS = {
+            ToolType.PROXY, ToolType.PROXY, ToolType.PROXY, ToolType.PROXY, ToolType.PROXY,
+            ToolType.PROXY, ToolType.PROXY, ToolType.REPEATER, ToolType.SCANNER, ToolType.INTRUDER
+    };
+    private static final MimeType[] MIME_TYPES = {
+            MimeType.JSON, MimeType.JSON, MimeType.HTML, MimeType.HTML, MimeType.SCRIPT,
+            MimeType.PLAIN_TEXT, MimeType.XML, MimeType.IMAGE_PNG, MimeType.CSS
+    };
+    private static final String[] SERVERS = {"nginx", "Apache", "cloudflare", "envoy"};
+
+    // Live traffic goes to app.target-N.example.test, history to app.target-N.history.test
+    private static final String TARGET_DOMAIN = ".example.test";
+    private static final String HISTORY_DOMAIN = ".history.test";
+
+    /**
+     * Generate exchanges over the given number of hosts, with a realistic mix of tools,
+     * content types, static assets (dropped by the default capture rules) and bodies
+     */
+    static List<FakeBurp.Exchange> syntheticExchanges(int count, int hosts, int bodySize, Random random,
+                                                      String domain) {
+        List<FakeBurp.Exchange> exchanges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String host = "app.target-" + random.nextInt(hosts) + domain;
+            MimeType mime = MIME_TYPES[random.nextInt(MIME_TYPES.length)];
+            String path = switch (mime) {
+                case IMAGE_PNG -> "/static/img-" + random.nextInt(100) + ".png";
+                case CSS -> "/static/site-" + random.nextInt(10) + ".css";
+                case SCRIPT -> "/static/app-" + random.nextInt(50) + ".js";
+                default -> "/api/v1/items/" + random.nextInt(100_000) + "?page=" + random.nextInt(20);
+            };
+            boolean post = random.nextInt(4) == 0;
+
+            List<HttpHeader> requestHeaders = List.of(
+                    FakeBurp.header("Host", host),
+                    FakeBurp.header("User-Agent", "Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0"),
+                    FakeBurp.header("Accept", "*/*"),
+                    FakeBurp.header("Accept-Encoding", "gzip, deflate, br"),
+                    FakeBurp.header("Cookie", "session=" + Long.toHexString(random.nextLong())),
+                    FakeBurp.header("Connection", "keep-alive"));
+            byte[] requestBody = post ? body(random, Math.max(16, bodySize / 8)) : new byte[0];
+            byte[] responseBody = body(random, Math.max(0, bodySize / 2 + random.nextInt(bodySize + 1)));
+            List<HttpHeader> responseHeaders = List.of(
+                    FakeBurp.header("Server", SERVERS[random.nextInt(SERVERS.length)]),
+                    FakeBurp.header("Content-Type", contentType(mime)),
+                    FakeBurp.header("Content-Length", Integer.toString(responseBody.length)),
+                    FakeBurp.header("Cache-Control", "no-cache"),
+                    FakeBurp.header("Set-Cookie", "tracking=" + random.nextInt(1000) + "; Path=/"),
+                    FakeBurp.header("X-Request-Id", Long.toHexString(random.nextLong())));
+
+            int status = random.nextInt(20) == 0 ? 304 : random.nextInt(10) == 0 ? 404 : 200;
+            exchanges.add(new FakeBurp.Exchange(
+                    TOOLS[random.nextInt(TOOLS.length)], host, post ? "POST" : "GET", path,
+                    requestHeaders, requestBody, status, mime, responseHeaders, responseBody));
+        }
+        return exchanges;
+    }
+
+    /**
+     * Text-like body: random words, so compression and deduplication behave as on real pages
+     */
+    private static byte[] body(Random random, int size) {
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append("lorem ipsum dolor sit amet ".charAt(random.nextInt(27))).append(random.nextInt(10));
+        }
+        text.setLength(size);
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String contentType(MimeType mime) {
+        return switch (mime) {
+            case JSON -> "application/json";
+            case HTML -> "text/html; charset=utf-8";
+            case SCRIPT -> "application/javascript";
+            case XML -> "application/xml";
+            case IMAGE_PNG -> "image/png";
+            case CSS -> "text/css";
+            default -> "text/plain";
+        };
+    }
+
+    /**
+     * Load recorded exchanges: one JSON object per line, in the ingest record format
+     * (bodies sent by hash only are replayed empty)
+     */
+    static List<HttpResponseReceived> replay(Path file) throws IOException {
+        List<HttpResponseReceived> exchanges = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonObject record = JsonParser.parseString(line).getAsJsonObject();
+                String url = record.get("url").getAsString();
+                String host = Scope.hostOf(url);
+                int pathStart = url.indexOf('/', url.indexOf("://") + 3);
+                exchanges.add(FakeBurp.responseReceived(new FakeBurp.Exchange(
+                        enumOr(ToolType.class, string(record, "toolSource"), ToolType.PROXY),
+                        host == null ? "" : host,
+                        string(record, "method") == null ? "GET" : string(record, "method"),
+                        pathStart < 0 ? "/" : url.substring(pathStart),
+                        headers(record.get("requestHeaders")),
+                        recordedBody(record, "requestBody"),
+                        record.has("statusCode") ? record.get("statusCode").getAsInt() : 200,
+                        enumOr(MimeType.class, string(record, "mimeType"), MimeType.UNRECOGNIZED),
+                        headers(record.get("responseHeaders")),
+                        recordedBody(record, "responseBody"))));
+            }
+        }
+        if (exchanges.isEmpty()) {
+            throw new IOException("No records in " + file);
+        }
+        return exchanges;
+    }
+
+    private static List<HttpHeader> headers(JsonElement element) {
+        List<HttpHeader> headers = new ArrayList<>();
+        if (element == null || !element.isJsonObject()) {
+            return headers;
+        }
+        for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+            if (entry.getValue().isJsonArray()) {
+                entry.getValue().getAsJsonArray().forEach(value -> headers.add(FakeBurp.header(entry.getKey(), value.getAsString())));
+            } else {
+                headers.add(FakeBurp.header(entry.getKey(), entry.getValue().getAsString()));
+            }
+        }
+        return headers;
+    }
+
+    private static byte[] recordedBody(JsonObject record, String name) {
+        String body = string(record, name);
+        if (body == null) {
+            return new byte[0];
+        }
+        return "base64".equals(string(record, name + "Encoding"))
+                ? Base64.getDecoder().decode(body)
+                : body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    private static <E extends Enum<E>> E enumOr(Class<E> type, String name, E fallback) {
+        try {
+            return name == null ? fallback : Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    // ----- measurement -----
+
+    /**
+     * Samples heap usage every 20 ms; the peak of the usage left after each collection
+     * approximates the live set
+     */
+    private static final class HeapSampler {
+        private final LongAccumulator peak = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator peakAfterGc = new LongAccumulator(Math::max, 0);
+        private final Thread thread = new Thread(this::run, "load-driver-heap");
+        private volatile boolean running = true;
+
+        void start() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+            sample();
+        }
+
+        long peakBytes() {
+            return peak.get();
+        }
+
+        long peakAfterGcBytes() {
+            return peakAfterGc.get();
+        }
+
+        private void run() {
+            while (running) {
+                sample();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+            }
+        }
+
+        private void sample() {
+            peak.accumulate(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+            long afterGc = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+                if (usage != null) {
+                    afterGc += usage.getUsed();
+                }
+            }
+            peakAfterGc.accumulate(afterGc);
+        }
+    }
+
+    // ----- arguments -----
+
+    private static Map<String, String> parseArgs(String[] argv) {
+        Map<String, String> args = new LinkedHashMap<>();
+        for (int i = 0; i < argv.length; i++) {
+            String arg = argv[i];
+            if (!arg.startsWith(OPTION_PREFIX)) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String name = arg.substring(OPTION_PREFIX.length());
+            int equals = name.indexOf('=');
+            if (equals >= 0) {
+                args.put(name.substring(0, equals), name.substring(equals + 1));
+            } else if (i + 1 < argv.length && !argv[i + 1].startsWith(OPTION_PREFIX)) {
+                args.put(name, argv[++i]);
+            } else {
+                args.put(name, "true");
+            }
+        }
+        return args;
+    }
+
+    private static int intArg(Map<String, String> args, String name, int fallback) {
+        return args.containsKey(name) ? Integer.parseInt(args.get(name)) : fallback;
+    }
+
+    private static double doubleArg(Map<String, String> args, String name, double fallback) {
+        return args.containsKey(name) ? Double.parseDouble(args.get(name)) : fallback;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+}
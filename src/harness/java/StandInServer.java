@@ -0,0 +1,556 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import json.JSONBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the DeepBounty server, bound to the loopback interface.
+ * <p>
+ * Implements the endpoints the extension calls: {@code /scope}, {@code /scope/version}
+ * (long poll and ETag), {@code /scope/delta}, {@code /ingest}, {@code /ingest/batch}
+ * (JSON and binary), {@code PUT /ingest/body/{hash}}, {@code PUT /ingest/upload/{recordId}/{field}}
+ * (large bodies, one {@code Content-Range} slice per request), {@code DELETE /ingest/upload/{recordId}}
+ * (upload aborted because its record was dropped) and {@code /health}. Bodies
+ * sent by hash are checked against the bodies received so far and reported missing in the
+ * ingest acknowledgement.
+ * <p>
+ * Failure modes are configurable: added latency, a share of 429/503 answers on ingest,
+ * and scope churn (entries replaced at a fixed interval, with a bounded delta history).
+ */
+final class StandInServer {
+
+    /**
+     * Behaviour knobs
+     *
+     * @param latencyMs       added to every ingest answer, plus up to as much random jitter
+     * @param errorRate       share of ingest requests answered 429 or 503, between 0 and 1
+     * @param churnIntervalMs interval between scope changes, 0 for a static scope
+     * @param churnSize       entries removed and added by each change
+     * @param deltaHistory    versions kept for /scope/delta; older clients get a 410
+     */
+    record Options(int latencyMs, double errorRate, int churnIntervalMs, int churnSize, int deltaHistory) {
+    }
+
+    private record Delta(int version, List<String> added, List<String> removed) {
+    }
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+    private final Options options;
+    private final Gson gson = new Gson();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(16, daemon("stand-in-http"));
+    private final ScheduledExecutorService churn = Executors.newSingleThreadScheduledExecutor(daemon("stand-in-churn"));
+
+    // Scope state, guarded by this
+    private final LinkedHashSet<String> scope = new LinkedHashSet<>();
+    private final List<Delta> history = new ArrayList<>();
+    private int version = 1;
+    private int churnSequence;
+
+    private final Set<String> storedBodies = ConcurrentHashMap.newKeySet();
+
+    // Records for hosts under this suffix are counted apart (e.g. backfilled history)
+    private volatile String trackedHostSuffix;
+    private final LongAdder trackedRecords = new LongAdder();
+    private volatile long lastTrackedRecordNanos;
+
+    // Counters read by the driver
+    private final LongAdder recordsReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder ingestRequests = new LongAdder();
+    private final LongAdder batchRequests = new LongAdder();
+    private final LongAdder binaryBatches = new LongAdder();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final LongAdder malformedPayloads = new LongAdder();
+    private final LongAdder missingBodies = new LongAdder();
+    private final LongAdder bodiesUploaded = new LongAdder();
+    private final LongAdder uploadSlices = new LongAdder();
+    private final LongAdder uploadedBodies = new LongAdder();
+    private final LongAdder abortedUploads = new LongAdder();
+    private final LongAdder scopeDownloads = new LongAdder();
+    private final LongAdder deltaDownloads = new LongAdder();
+    private final LongAdder versionPolls = new LongAdder();
+
+    StandInServer(int port, Options options, List<String> initialScope) throws IOException {
+        this.options = options;
+        scope.addAll(initialScope);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        server.setExecutor(executor);
+        server.createContext("/scope", this::handleScope);
+        server.createContext("/ingest", this::handleIngest);
+        server.createContext("/health", this::handleHealth);
+    }
+
+    void start() {
+        server.start();
+        if (options.churnIntervalMs() > 0) {
+            churn.scheduleAtFixedRate(this::churnScope, options.churnIntervalMs(), options.churnIntervalMs(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void stop() {
+        churn.shutdownNow();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    long recordsReceived() {
+        return recordsReceived.sum();
+    }
+
+    /**
+     * Count records whose host ends with the suffix separately
+     */
+    void trackHostSuffix(String suffix) {
+        trackedHostSuffix = suffix;
+    }
+
+    long trackedRecords() {
+        return trackedRecords.sum();
+    }
+
+    /**
+     * When the last tracked record arrived ({@link System#nanoTime()}), 0 if none did
+     */
+    long lastTrackedRecordNanos() {
+        return lastTrackedRecordNanos;
+    }
+
+    /**
+     * Add entries to the scope as a new version, as an operator would
+     */
+    void expandScope(List<String> entries) {
+        synchronized (this) {
+            List<String> added = new ArrayList<>();
+            for (String entry : entries) {
+                if (scope.add(entry)) {
+                    added.add(entry);
+                }
+            }
+            publish(added, List.of());
+        }
+    }
+
+    synchronized int scopeVersion() {
+        return version;
+    }
+
+    /**
+     * Counter values, in a stable order
+     */
+    Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("recordsReceived", recordsReceived.sum());
+        stats.put("bytesReceived", bytesReceived.sum());
+        stats.put("ingestRequests", ingestRequests.sum());
+        stats.put("batchRequests", batchRequests.sum());
+        stats.put("binaryBatches", binaryBatches.sum());
+        stats.put("injectedErrors", injectedErrors.sum());
+        stats.put("malformedPayloads", malformedPayloads.sum());
+        stats.put("missingBodies", missingBodies.sum());
+        stats.put("bodiesUploaded", bodiesUploaded.sum());
+        stats.put("scopeDownloads", scopeDownloads.sum());
+        stats.put("deltaDownloads", deltaDownloads.sum());
+        stats.put("versionPolls", versionPolls.sum());
+        stats.put("uploadSlices", uploadSlices.sum());
+        stats.put("uploadedBodies", uploadedBodies.sum());
+        stats.put("abortedUploads", abortedUploads.sum());
+        stats.put("trackedRecords", trackedRecords.sum());
+        stats.put("scopeVersion", (long) scopeVersion());
+        return stats;
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            send(exchange, 200, null);
+        }
+    }
+
+    // ----- scope -----
+
+    private void handleScope(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            switch (path) {
+                case "/scope" -> sendScope(exchange);
+                case "/scope/version" -> sendVersion(exchange);
+                case "/scope/delta" -> sendDelta(exchange);
+                default -> send(exchange, 404, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendScope(HttpExchange exchange) throws IOException {
+        scopeDownloads.increment();
+        JsonObject body = new JsonObject();
+        String etag;
+        synchronized (this) {
+            body.addProperty("version", version);
+            JsonArray subdomains = new JsonArray();
+            scope.forEach(subdomains::add);
+            body.add("subdomains", subdomains);
+            etag = "\"scope-" + version + "\"";
+        }
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            send(exchange, 304, null);
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        send(exchange, 200, gson.toJson(body));
+    }
+
+    /**
+     * Long poll: hold the request until the version moves past {@code since} or
+     * {@code waitMs} elapses
+     */
+    private void sendVersion(HttpExchange exchange) throws IOException, InterruptedException {
+        versionPolls.increment();
+        Map<String, String> query = query(exchange.getRequestURI());
+        int since = parseInt(query.get("since"), -1);
+        long waitMs = Math.min(parseInt(query.get("waitMs"), 0), 60_000);
+
+        int current;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + waitMs;
+            while (version <= since) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            current = version;
+        }
+
+        String etag = "\"version-" + current + "\"";
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            send(exchange, 304, null);
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        send(exchange, 200, "{\"version\":" + current + "}");
+    }
+
+    private void sendDelta(HttpExchange exchange) throws IOException {
+        int since = parseInt(query(exchange.getRequestURI()).get("since"), -1);
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        int current;
+        synchronized (this) {
+            current = version;
+            int oldest = history.isEmpty() ? version + 1 : history.get(0).version();
+            if (since < oldest - 1 || since > version) {
+                send(exchange, 410, null);
+                return;
+            }
+            // Replay the changes in order, cancelling out entries added then removed
+            for (Delta delta : history) {
+                if (delta.version() <= since) {
+                    continue;
+                }
+                for (String entry : delta.removed()) {
+                    if (!added.remove(entry)) {
+                        removed.add(entry);
+                    }
+                }
+                for (String entry : delta.added()) {
+                    if (!removed.remove(entry)) {
+                        added.add(entry);
+                    }
+                }
+            }
+        }
+        deltaDownloads.increment();
+        JsonObject body = new JsonObject();
+        body.addProperty("version", current);
+        body.add("added", gson.toJsonTree(added));
+        body.add("removed", gson.toJsonTree(removed));
+        send(exchange, 200, gson.toJson(body));
+    }
+
+    /**
+     * Replace the oldest scope entries with new ones and publish a new version
+     */
+    private void churnScope() {
+        synchronized (this) {
+            List<String> removed = new ArrayList<>();
+            List<String> added = new ArrayList<>();
+            var iterator = scope.iterator();
+            while (iterator.hasNext() && removed.size() < options.churnSize()) {
+                removed.add(iterator.next());
+                iterator.remove();
+            }
+            for (int i = 0; i < options.churnSize(); i++) {
+                String entry = "churn-" + (churnSequence++) + ".example.test";
+                scope.add(entry);
+                added.add(entry);
+            }
+            publish(added, removed);
+        }
+    }
+
+    /**
+     * Record a change as a new version and wake the long polls. Caller must hold the lock.
+     */
+    private void publish(List<String> added, List<String> removed) {
+        version++;
+        history.add(new Delta(version, added, removed));
+        while (history.size() > options.deltaHistory()) {
+            history.remove(0);
+        }
+        notifyAll();
+    }
+
+    // ----- ingest -----
+
+    private void handleIngest(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] payload = readAll(exchange.getRequestBody());
+            bytesReceived.add(payload.length);
+            ingestRequests.increment();
+            simulateLatency();
+
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.startsWith("/ingest/body/") && method.equals("PUT")) {
+                storedBodies.add(path.substring("/ingest/body/".length()));
+                bodiesUploaded.increment();
+                send(exchange, 204, null);
+                return;
+            }
+            if (path.startsWith("/ingest/upload/") && method.equals("PUT")) {
+                receiveUploadSlice(exchange, payload.length);
+                return;
+            }
+            if (path.startsWith("/ingest/upload/") && method.equals("DELETE")) {
+                abortedUploads.increment();
+                send(exchange, 204, null);
+                return;
+            }
+            if (!method.equals("POST") || !(path.equals("/ingest") || path.equals("/ingest/batch"))) {
+                send(exchange, 404, null);
+                return;
+            }
+            if (injectError(exchange)) {
+                return;
+            }
+
+            List<JSONBody.Traffic> records = new ArrayList<>();
+            List<JsonObject> jsonRecords = new ArrayList<>();
+            try {
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                if (contentType != null && contentType.startsWith(BinaryTrafficCodec.CONTENT_TYPE)) {
+                    records = BinaryTrafficCodec.decode(payload);
+                    binaryBatches.increment();
+                } else {
+                    JsonElement parsed = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8));
+                    if (parsed.isJsonArray()) {
+                        parsed.getAsJsonArray().forEach(element -> jsonRecords.add(element.getAsJsonObject()));
+                    } else {
+                        jsonRecords.add(parsed.getAsJsonObject());
+                    }
+                }
+            } catch (IOException | JsonParseException | IllegalStateException e) {
+                malformedPayloads.increment();
+                send(exchange, 400, "{\"error\":\"" + e.getClass().getSimpleName() + "\"}");
+                return;
+            }
+            if (path.equals("/ingest/batch")) {
+                batchRequests.increment();
+            }
+
+            Set<String> missing = new LinkedHashSet<>();
+            for (JSONBody.Traffic traffic : records) {
+                track(traffic.url());
+                checkBody(traffic.requestBodyHash(), traffic.requestBodyOmitted(), traffic.requestBodyTransfer(),
+                        missing);
+                checkBody(traffic.responseBodyHash(), traffic.responseBodyOmitted(), traffic.responseBodyTransfer(),
+                        missing);
+            }
+            for (JsonObject traffic : jsonRecords) {
+                track(string(traffic, "url"));
+                checkBody(string(traffic, "requestBodyHash"), bool(traffic, "requestBodyOmitted"),
+                        string(traffic, "requestBodyTransfer"), missing);
+                checkBody(string(traffic, "responseBodyHash"), bool(traffic, "responseBodyOmitted"),
+                        string(traffic, "responseBodyTransfer"), missing);
+            }
+            recordsReceived.add(records.size() + jsonRecords.size());
+            missingBodies.add(missing.size());
+            send(exchange, 200, "{\"missing\":" + gson.toJson(missing) + "}");
+        }
+    }
+
+    private void track(String url) {
+        String suffix = trackedHostSuffix;
+        String host = url == null ? null : Scope.hostOf(url);
+        if (suffix != null && host != null && host.endsWith(suffix)) {
+            trackedRecords.increment();
+            lastTrackedRecordNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Count one slice of a body uploaded under a record ID, checking its Content-Range
+     */
+    private void receiveUploadSlice(HttpExchange exchange, int length) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Content-Range");
+        Matcher matcher = range == null ? null : CONTENT_RANGE.matcher(range);
+        if (matcher == null || !matcher.matches()
+                || Long.parseLong(matcher.group(2)) - Long.parseLong(matcher.group(1)) + 1 != length) {
+            malformedPayloads.increment();
+            send(exchange, 400, null);
+            return;
+        }
+        uploadSlices.increment();
+        if (Long.parseLong(matcher.group(2)) + 1 == Long.parseLong(matcher.group(3))) {
+            uploadedBodies.increment();
+        }
+        send(exchange, 204, null);
+    }
+
+    private void checkBody(String hash, boolean omitted, String transfer, Set<String> missing) {
+        // A truncated body is not stored, so it cannot be referenced later
+        if (hash == null || "truncated".equals(transfer)) {
+            return;
+        }
+        if (omitted) {
+            if (!storedBodies.contains(hash)) {
+                missing.add(hash);
+            }
+        } else {
+            storedBodies.add(hash);
+        }
+    }
+
+    private void simulateLatency() {
+        if (options.latencyMs() <= 0) {
+            return;
+        }
+        long delay = options.latencyMs() + ThreadLocalRandom.current().nextLong(options.latencyMs() + 1L);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Answer with a 429 (with Retry-After) or a 503 for a share of requests
+     *
+     * @return true if an error was sent
+     */
+    private boolean injectError(HttpExchange exchange) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (options.errorRate() <= 0 || random.nextDouble() >= options.errorRate()) {
+            return false;
+        }
+        injectedErrors.increment();
+        if (random.nextBoolean()) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, 429, null);
+        } else {
+            send(exchange, 503, null);
+        }
+        return true;
+    }
+
+    // ----- helpers -----
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> values = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return values;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                values.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        }
+        return values;
+    }
+
+    private static int parseInt(String value, int fallback) {
+        try {
+            return value == null ? fallback : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static String string(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        return value == null || value.isJsonNull() ? null : value.getAsString();
+    }
+
+    private static boolean bool(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        return value != null && !value.isJsonNull() && value.getAsBoolean();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,98 @@
+package benchmarks;
+
+import burp.api.montoya.http.message.HttpHeader;
+import json.HeaderList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of Burp headers done by the Handler for every captured message
+ * (HeaderInterner#toHeaderList), compared with the map-based conversion it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeaderMappingBenchmark {
+
+    private static final MethodHandle NEW_INTERNER = Handles.constructor("HeaderInterner", int.class);
+    private static final MethodHandle TO_HEADER_LIST =
+            Handles.method("HeaderInterner", "toHeaderList", HeaderList.class, List.class);
+
+    /**
+     * Stand-in for Burp's header implementation, which needs a running Burp
+     */
+    private record Header(String name, String value) implements HttpHeader {
+        @Override
+        public String toString() {
+            return name + ": " + value;
+        }
+    }
+
+    private static final String[][] COMMON = {
+            {"Content-Type", "text/html; charset=utf-8"},
+            {"Server", "nginx"},
+            {"Cache-Control", "no-cache, no-store, must-revalidate"},
+            {"Vary", "Accept-Encoding"},
+            {"X-Frame-Options", "DENY"},
+            {"Strict-Transport-Security", "max-age=31536000; includeSubDomains"},
+            {"Date", "Fri, 16 Oct 2026 10:00:00 GMT"},
+            {"Content-Length", "18342"}
+    };
+
+    @Param({"8", "24", "64"})
+    public int headerCount;
+
+    private List<HttpHeader> headers;
+    private Object interner;
+
+    @Setup
+    public void setup() throws Throwable {
+        headers = new ArrayList<>(headerCount);
+        for (int i = 0; i < headerCount; i++) {
+            if (i < COMMON.length) {
+                // Fresh strings, as Burp returns them
+                headers.add(new Header(new String(COMMON[i][0]), new String(COMMON[i][1])));
+            } else if (i % 3 == 0) {
+                headers.add(new Header("Set-Cookie", "session" + i + "=" + Long.toHexString(i * 0x9E3779B97F4A7C15L) + "; Path=/"));
+            } else {
+                headers.add(new Header("X-Custom-" + i, "value-" + i));
+            }
+        }
+        interner = (Object) NEW_INTERNER.invokeExact(4096);
+    }
+
+    @Benchmark
+    public HeaderList headerList() throws Throwable {
+        return (HeaderList) TO_HEADER_LIST.invokeExact(interner, (List) headers);
+    }
+
+    /**
+     * Previous implementation: HashMap with repeated headers joined by "; "
+     */
+    @Benchmark
+    public Map<String, String> legacyFoldedMap() {
+        Map<String, String> headerMap = new HashMap<>();
+        for (HttpHeader header : headers) {
+            String existingValue = headerMap.get(header.name());
+            if (existingValue != null) {
+                headerMap.put(header.name(), existingValue + "; " + header.value());
+            } else {
+                headerMap.put(header.name(), header.value());
+            }
+        }
+        return headerMap;
+    }
+}
@@ -0,0 +1,114 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scope lookups as done by Scope#isHostInScope on every response, against scopes of
+ * 10, 10k and 200k entries (half exact hosts, half {@code *.domain} wildcards).
+ * Lookups mix exact hits, subdomains of wildcards and misses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScopeMatchingBenchmark {
+
+    private static final MethodHandle COMPILE =
+            Handles.staticMethod("ScopeMatcher", "compile", Handles.type("ScopeMatcher"), Collection.class);
+    private static final MethodHandle MATCHES =
+            Handles.method("ScopeMatcher", "matches", boolean.class, String.class);
+    private static final MethodHandle NEW_CACHE = Handles.constructor("HostDecisionCache", int.class);
+    private static final MethodHandle CACHE_GET =
+            Handles.method("HostDecisionCache", "get", Boolean.class, String.class, int.class);
+    private static final MethodHandle CACHE_PUT =
+            Handles.method("HostDecisionCache", "put", void.class, String.class, int.class, boolean.class);
+
+    private static final int LOOKUP_HOSTS = 4096;
+
+    @Param({"10", "10000", "200000"})
+    public int entries;
+
+    private List<String> scopeEntries;
+    private Object matcher;
+    private Object cache;
+    private String[] hosts;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        Random random = new Random(42);
+        scopeEntries = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            scopeEntries.add(i % 2 == 0 ? "app" + i + ".target" + (i % 97) + ".com" : "*.org" + i + ".example.net");
+        }
+        matcher = (Object) COMPILE.invokeExact((Collection) scopeEntries);
+        cache = (Object) NEW_CACHE.invokeExact(8192);
+
+        hosts = new String[LOOKUP_HOSTS];
+        for (int i = 0; i < LOOKUP_HOSTS; i++) {
+            String entry = scopeEntries.get(random.nextInt(entries)).replace("*.", "");
+            hosts[i] = switch (i % 4) {
+                // Exact entry (or the apex of a wildcard)
+                case 0 -> entry;
+                // Subdomain, matched by wildcards only
+                case 1 -> "api.v2." + entry;
+                // Unrelated host sharing the TLD
+                case 2 -> "cdn" + random.nextInt(1_000_000) + ".thirdparty.com";
+                // Third-party host with a long label chain
+                default -> "a.b.c.d.tracker" + random.nextInt(1_000_000) + ".analytics.io";
+            };
+        }
+    }
+
+    private String nextHost() {
+        String host = hosts[next];
+        next = (next + 1) & (LOOKUP_HOSTS - 1);
+        return host;
+    }
+
+    /**
+     * Compiled matcher only (every lookup is a cache miss)
+     */
+    @Benchmark
+    public boolean matcherLookup() throws Throwable {
+        return (boolean) MATCHES.invokeExact(matcher, nextHost());
+    }
+
+    /**
+     * Matcher behind the per-host decision cache, as in Scope#isHostInScope
+     */
+    @Benchmark
+    public boolean cachedLookup() throws Throwable {
+        String host = nextHost();
+        Boolean cached = (Boolean) CACHE_GET.invokeExact(cache, host, 1);
+        if (cached != null) {
+            return cached;
+        }
+        boolean inScope = (boolean) MATCHES.invokeExact(matcher, host);
+        CACHE_PUT.invokeExact(cache, host, 1, inScope);
+        return inScope;
+    }
+
+    /**
+     * Cost of a full scope update
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object compile() throws Throwable {
+        return (Object) COMPILE.invokeExact((Collection) scopeEntries);
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import json.HeaderList;
+import json.JSONBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of one captured record with bodies from 1 KB to 10 MB, as text
+ * (escaped JSON string) and as binary data (base64 in JSON, raw in the binary format).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TrafficSerializationBenchmark {
+
+    private static final MethodHandle NEW_SERIALIZER = Handles.constructor("TrafficSerializer");
+    private static final MethodHandle SERIALIZE =
+            Handles.method("TrafficSerializer", "serialize", byte[].class, JSONBody.Traffic.class);
+    private static final MethodHandle ENCODE_BINARY =
+            Handles.staticMethod("BinaryTrafficCodec", "encode", List.class, List.class);
+
+    @Param({"1024", "65536", "1048576", "10485760"})
+    public int bodySize;
+
+    @Param({"text", "binary"})
+    public String bodyKind;
+
+    private Object serializer;
+    private JSONBody.Traffic traffic;
+    private List<JSONBody.Traffic> batch;
+
+    @Setup
+    public void setup() throws Throwable {
+        byte[] body;
+        if (bodyKind.equals("text")) {
+            // HTML-like text with quotes, tabs, newlines and non-ASCII characters
+            String chunk = "<div class=\"item\" data-id=\"42\">Café – résumé</div>\n\t<script>var x = \"a\\\\b\";</script>\n";
+            StringBuilder text = new StringBuilder(bodySize + chunk.length());
+            while (text.length() < bodySize) {
+                text.append(chunk);
+            }
+            body = text.toString().getBytes(StandardCharsets.UTF_8);
+        } else {
+            body = new byte[bodySize];
+            new Random(42).nextBytes(body);
+        }
+
+        HeaderList requestHeaders = new HeaderList(
+                new String[]{"Host", "User-Agent", "Accept", "Cookie"},
+                new String[]{"app.target.com", "Mozilla/5.0", "*/*", "session=abc123"});
+        HeaderList responseHeaders = new HeaderList(
+                new String[]{"Content-Type", "Server", "Set-Cookie", "Set-Cookie"},
+                new String[]{"text/html; charset=utf-8", "nginx", "a=1; Path=/", "b=2; Path=/"});
+        traffic = new JSONBody.Traffic("https://app.target.com/path?q=1", "GET", 200,
+                requestHeaders, responseHeaders, new byte[0], body, "HTML",
+                null, null, false, false, null, null, null, null, 0, 0);
+        batch = Collections.singletonList(traffic);
+        serializer = (Object) NEW_SERIALIZER.invokeExact();
+    }
+
+    @Benchmark
+    public byte[] json() throws Throwable {
+        return (byte[]) SERIALIZE.invokeExact(serializer, traffic);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<byte[]> binaryFormat() throws Throwable {
+        return (List<byte[]>) ENCODE_BINARY.invokeExact(batch);
+    }
+}
@@ -0,0 +1,547 @@
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.proxy.ProxyHttpRequestResponse;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends what Burp captured before a host entered the scope.
+ * <p>
+ * When a scope update brings new entries, the proxy history and then the site map are
+ * walked for exchanges whose host is in the new scope but was not in the previous one.
+ * Both are fetched through Burp's filtered accessors, so only those exchanges are loaded.
+ * Each list is split into chunks claimed by a pool of threads, and matches are queued
+ * behind live traffic (see {@link IngestQueue#offerBackground}), so memory stays bounded
+ * by the queue whatever the size of the history. Site map items already sent from the
+ * proxy history are skipped using a fixed-size Bloom filter.
+ * <p>
+ * Progress is saved every few seconds to a checkpoint holding the previous scope, the
+ * phase and, in the proxy history, the first item not fully processed, so a backfill
+ * interrupted by an unload resumes on the next load; at most one chunk per thread is sent
+ * twice. The proxy history only grows, so an index into it stays valid (unless items are
+ * deleted meanwhile). The site map has no stable order across calls or sessions, so an
+ * interrupted site map walk starts over and the server sees its items again; records
+ * sent twice are assumed harmless to the server.
+ */
+public class Backfill implements Scope.ScopeChangeListener {
+
+    /**
+     * What a backfill is walking
+     */
+    public enum Phase {
+        IDLE,
+        PROXY_HISTORY,
+        SITE_MAP
+    }
+
+    /**
+     * Saved progress: hosts matching {@code previousScope} were already sent live.
+     * {@code nextIndex} is only meaningful in the proxy history phase.
+     */
+    private record Checkpoint(String serverUrl, int scopeVersion, List<String> previousScope, Phase phase,
+                              int nextIndex) {
+    }
+
+    // Items claimed at once by a backfill thread
+    private static final int CHUNK_SIZE = 256;
+
+    private static final long CHECKPOINT_INTERVAL_MS = 2000;
+    private static final String CHECKPOINT_FILE = "backfill.checkpoint.json";
+
+    private final MontoyaApi api;
+    private final Settings settings;
+    private final Scope scope;
+    private final Handler handler;
+    private final Gson gson = new Gson();
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("deepbounty-backfill").daemon(true).factory());
+
+    // The job running or waiting to run, guarded by this
+    private Job job;
+    private Future<?> jobFuture;
+
+    // Progress of the current phase, for the DeepBounty tab
+    private volatile Phase phase = Phase.IDLE;
+    private volatile int phaseTotal;
+    private final LongAdder phaseScanned = new LongAdder();
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder matched = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder skippedDuplicates = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public Backfill(MontoyaApi api, Settings settings, Scope scope, Handler handler, Metrics metrics) {
+        this.api = api;
+        this.settings = settings;
+        this.scope = scope;
+        this.handler = handler;
+
+        metrics.gauge("backfill.phase", () -> phase.name());
+        metrics.gauge("backfill.progress", this::progress);
+        metrics.gauge("backfill.scanned", scanned::sum);
+        metrics.gauge("backfill.matched", matched::sum);
+        metrics.gauge("backfill.queued", queued::sum);
+        metrics.gauge("backfill.skippedDuplicates", skippedDuplicates::sum);
+        metrics.gauge("backfill.errors", errors::sum);
+    }
+
+    /**
+     * Start a backfill for the entries the new scope adds
+     */
+    @Override
+    public synchronized void scopeChanged(ScopeMatcher previous, ScopeMatcher current, int version) {
+        if (!settings.isBackfillEnabled()) {
+            return;
+        }
+        Set<String> previousEntries = new HashSet<>(previous.entries());
+        long added = current.entries().stream().filter(entry -> !previousEntries.contains(entry)).count();
+        if (added == 0) {
+            return;
+        }
+
+        // A backfill still running has not sent everything new relative to its own base yet
+        List<String> base = previous.entries();
+        if (jobFuture != null && !jobFuture.isDone()) {
+            base = job.previousEntries;
+            jobFuture.cancel(true);
+        }
+        safeLogToOutput("Scope expanded by " + added + " entries, backfilling proxy history and site map");
+        submit(new Job(base, version, Phase.PROXY_HISTORY, 0));
+    }
+
+    /**
+     * Resume a backfill interrupted by the last unload, if any
+     */
+    public synchronized void resume() {
+        Checkpoint checkpoint;
+        try {
+            checkpoint = readCheckpoint();
+        } catch (IOException | JsonParseException e) {
+            safeLogToError("Failed to read backfill checkpoint, discarding it: " + e.getMessage());
+            deleteCheckpoint();
+            return;
+        }
+        if (checkpoint == null) {
+            return;
+        }
+        if (!settings.isBackfillEnabled() || !settings.getServerUrl().equals(checkpoint.serverUrl())) {
+            deleteCheckpoint();
+            return;
+        }
+        safeLogToOutput(checkpoint.phase() == Phase.PROXY_HISTORY
+                ? "Resuming backfill from proxy history item " + checkpoint.nextIndex()
+                : "Resuming backfill from the start of the site map");
+        submit(new Job(checkpoint.previousScope(), checkpoint.scopeVersion(), checkpoint.phase(), checkpoint.nextIndex()));
+    }
+
+    /**
+     * Stop the running backfill, saving its checkpoint
+     */
+    public void shutdown() {
+        coordinator.shutdownNow();
+        try {
+            coordinator.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    private void submit(Job next) {
+        job = next;
+        jobFuture = coordinator.submit(next);
+    }
+
+    private String progress() {
+        int total = phaseTotal;
+        if (phase == Phase.IDLE || total == 0) {
+            return "-";
+        }
+        long done = Math.min(phaseScanned.sum(), total);
+        return (done * 100 / total) + "% (" + done + "/" + total + ")";
+    }
+
+    /**
+     * One backfill: the proxy history, then the site map
+     */
+    private final class Job implements Runnable {
+        private final List<String> previousEntries;
+        private final ScopeMatcher previous;
+        private final int scopeVersion;
+        private final Phase startPhase;
+        private final int startIndex;
+        private final SeenFilter sentFromHistory = new SeenFilter();
+
+        Job(List<String> previousEntries, int scopeVersion, Phase startPhase, int startIndex) {
+            this.previousEntries = List.copyOf(previousEntries);
+            this.previous = ScopeMatcher.compile(previousEntries);
+            this.scopeVersion = scopeVersion;
+            this.startPhase = startPhase;
+            this.startIndex = startIndex;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long queuedBefore = queued.sum();
+            try {
+                List<ProxyHttpRequestResponse> history = api.proxy().history(
+                        item -> item.hasResponse() && isNewlyInScope(item.finalRequest()));
+
+                // When resuming, rebuild the filter of what the history walk already sent
+                int alreadySent = startPhase == Phase.PROXY_HISTORY ? Math.min(startIndex, history.size()) : history.size();
+                for (int i = 0; i < alreadySent; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    rememberIfNew(history.get(i));
+                }
+                if (startPhase == Phase.PROXY_HISTORY) {
+                    walk(Phase.PROXY_HISTORY, history, startIndex);
+                }
+                // No stable order to resume from: always walk the site map from the start
+                walk(Phase.SITE_MAP, api.siteMap().requestResponses(
+                        node -> isNewlyInScope(Scope.hostOf(node.url()))), 0);
+
+                deleteCheckpoint();
+                safeLogToOutput("Backfill complete: " + (queued.sum() - queuedBefore) + " records queued in "
+                        + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " s");
+            } catch (InterruptedException e) {
+                // Cancelled by a newer scope change or by unload; the checkpoint is saved
+            } catch (RuntimeException e) {
+                safeLogToError("Backfill failed: " + e.getMessage());
+            } finally {
+                phase = Phase.IDLE;
+            }
+        }
+
+        /**
+         * Process a list from the given index with the backfill threads, saving the
+         * checkpoint until they are done
+         */
+        private void walk(Phase walkPhase, List<?> items, int from) throws InterruptedException {
+            int total = items.size();
+            Chunks chunks = new Chunks(Math.min(from, total), total);
+            phase = walkPhase;
+            phaseTotal = total;
+            phaseScanned.reset();
+            phaseScanned.add(chunks.from);
+            safeLogToOutput("Backfill: walking " + (total - chunks.from) + " " + walkPhase + " items");
+
+            int threads = settings.getBackfillThreads();
+            ExecutorService workers = Executors.newFixedThreadPool(threads,
+                    Thread.ofPlatform().name("deepbounty-backfill-worker-", 0).daemon(true).factory());
+            for (int i = 0; i < threads; i++) {
+                workers.execute(() -> work(walkPhase, items, chunks));
+            }
+            workers.shutdown();
+
+            try {
+                while (!workers.awaitTermination(CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    saveCheckpoint(walkPhase, resumeIndex(walkPhase, chunks));
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                // Workers stop at their next item; wait so the checkpoint is accurate
+                boolean stopped = awaitUninterruptibly(workers);
+                if (stopped) {
+                    saveCheckpoint(walkPhase, resumeIndex(walkPhase, chunks));
+                }
+                throw e;
+            }
+            if (walkPhase == Phase.PROXY_HISTORY) {
+                saveCheckpoint(Phase.SITE_MAP, 0);
+            }
+        }
+
+        private static int resumeIndex(Phase walkPhase, Chunks chunks) {
+            return walkPhase == Phase.PROXY_HISTORY ? chunks.resumeIndex() : 0;
+        }
+
+        private void work(Phase walkPhase, List<?> items, Chunks chunks) {
+            int chunk;
+            while ((chunk = chunks.claim()) >= 0) {
+                int start = chunks.from + chunk * CHUNK_SIZE;
+                int end = Math.min(start + CHUNK_SIZE, chunks.total);
+                for (int i = start; i < end; i++) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    try {
+                        if (walkPhase == Phase.PROXY_HISTORY) {
+                            sendHistoryItem((ProxyHttpRequestResponse) items.get(i));
+                        } else {
+                            sendSiteMapItem((HttpRequestResponse) items.get(i));
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (RuntimeException e) {
+                        // e.g. an item deleted from Burp while we walk
+                        errors.increment();
+                    }
+                    scanned.increment();
+                    phaseScanned.increment();
+                }
+                chunks.complete(chunk);
+            }
+        }
+
+        private void sendHistoryItem(ProxyHttpRequestResponse item) throws InterruptedException {
+            if (!rememberIfNew(item)) {
+                return;
+            }
+            matched.increment();
+            if (handler.queueStored(item.finalRequest(), item.response(), ToolType.PROXY)) {
+                queued.increment();
+            }
+        }
+
+        /**
+         * Check a history item and record its fingerprint for the site map walk
+         *
+         * @return true if its host is newly in scope
+         */
+        private boolean rememberIfNew(ProxyHttpRequestResponse item) {
+            if (!item.hasResponse()) {
+                return false;
+            }
+            HttpRequest request = item.finalRequest();
+            if (!isNewlyInScope(request)) {
+                return false;
+            }
+            sentFromHistory.add(fingerprint(request, item.response()));
+            return true;
+        }
+
+        private void sendSiteMapItem(HttpRequestResponse item) throws InterruptedException {
+            if (!item.hasResponse() || !isNewlyInScope(item.request())) {
+                return;
+            }
+            matched.increment();
+            if (sentFromHistory.mightContain(fingerprint(item.request(), item.response()))) {
+                skippedDuplicates.increment();
+                return;
+            }
+            if (handler.queueStored(item.request(), item.response(), ToolType.TARGET)) {
+                queued.increment();
+            }
+        }
+
+        private boolean isNewlyInScope(HttpRequest request) {
+            if (request == null || request.httpService() == null) {
+                return false;
+            }
+            return isNewlyInScope(request.httpService().host());
+        }
+
+        private boolean isNewlyInScope(String host) {
+            return host != null && !previous.matches(host) && scope.isHostInScope(host);
+        }
+
+        private void saveCheckpoint(Phase checkpointPhase, int nextIndex) {
+            try {
+                writeCheckpoint(new Checkpoint(settings.getServerUrl(), scopeVersion, previousEntries,
+                        checkpointPhase, nextIndex));
+            } catch (IOException e) {
+                safeLogToError("Failed to save backfill checkpoint: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String fingerprint(HttpRequest request, HttpResponse response) {
+        return request.method() + ' ' + request.url() + ' ' + response.statusCode();
+    }
+
+    private static boolean awaitUninterruptibly(ExecutorService executor) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return executor.awaitTermination(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Chunks of a list from a start index, claimed in order and completed in any order
+     */
+    private static final class Chunks {
+        private final int from;
+        private final int total;
+        private final int count;
+        private final AtomicInteger next = new AtomicInteger();
+        private final BitSet completed = new BitSet();
+        private int completedPrefix;
+
+        Chunks(int from, int total) {
+            this.from = from;
+            this.total = total;
+            this.count = (total - from + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        }
+
+        /**
+         * @return the next chunk number, or -1 when all are claimed
+         */
+        int claim() {
+            int chunk = next.getAndIncrement();
+            return chunk < count ? chunk : -1;
+        }
+
+        synchronized void complete(int chunk) {
+            completed.set(chunk);
+            while (completed.get(completedPrefix)) {
+                completedPrefix++;
+            }
+        }
+
+        /**
+         * First index not known to be processed
+         */
+        synchronized int resumeIndex() {
+            return Math.min(total, from + completedPrefix * CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Lock-free Bloom filter of 2^23 bits (1 MB) with 3 probes: about 2% false positives
+     * at 1M items, which only means a few site map duplicates of history items are missed
+     */
+    private static final class SeenFilter {
+        private static final int BITS_LOG2 = 23;
+        private static final int PROBES = 3;
+
+        private final AtomicLongArray words = new AtomicLongArray(1 << (BITS_LOG2 - 6));
+
+        void add(String value) {
+            long hash = hash(value);
+            for (int i = 0; i < PROBES; i++) {
+                int bit = probe(hash, i);
+                long mask = 1L << bit;
+                words.getAndUpdate(bit >>> 6, word -> word | mask);
+            }
+        }
+
+        boolean mightContain(String value) {
+            long hash = hash(value);
+            for (int i = 0; i < PROBES; i++) {
+                int bit = probe(hash, i);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int probe(long hash, int i) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            return (h1 + i * h2) & ((1 << BITS_LOG2) - 1);
+        }
+
+        /**
+         * 64-bit FNV-1a over the UTF-16 code units
+         */
+        private static long hash(String value) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+
+    // ----- checkpoint -----
+
+    private Path checkpointFile() {
+        return settings.getDataDirectory().resolve(CHECKPOINT_FILE);
+    }
+
+    private Checkpoint readCheckpoint() throws IOException {
+        Path file = checkpointFile();
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Checkpoint checkpoint = gson.fromJson(Files.readString(file, StandardCharsets.UTF_8), Checkpoint.class);
+        if (checkpoint == null || checkpoint.phase() == null || checkpoint.previousScope() == null
+                || checkpoint.serverUrl() == null || checkpoint.phase() == Phase.IDLE) {
+            throw new IOException("Incomplete checkpoint");
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Write the checkpoint atomically (temporary file + rename)
+     */
+    private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+        Path file = checkpointFile();
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, gson.toJson(checkpoint), StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteCheckpoint() {
+        try {
+            Files.deleteIfExists(checkpointFile());
+        } catch (IOException e) {
+            safeLogToError("Failed to delete backfill checkpoint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Safely log to output, checking if API is available
+     */
+    private void safeLogToOutput(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToOutput(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+
+    /**
+     * Safely log to error, checking if API is available
+     */
+    private void safeLogToError(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToError(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+}
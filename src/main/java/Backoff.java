@@ -0,0 +1,33 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential back-off with full jitter.
+ * <p>
+ * The delay before retry {@code n} is drawn uniformly from
+ * {@code [0, min(max, base * 2^n)]}, so clients that failed together do not
+ * retry together.
+ */
+public final class Backoff {
+
+    private Backoff() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Get the delay before a retry
+     *
+     * @param attempt number of failures so far, starting at 0
+     * @return the delay in milliseconds, at least 1
+     */
+    public static long delayMillis(int attempt, long baseMs, long maxMs) {
+        return 1 + ThreadLocalRandom.current().nextLong(ceilingMillis(attempt, baseMs, maxMs));
+    }
+
+    /**
+     * Upper bound of the delay before a retry, without jitter
+     */
+    public static long ceilingMillis(int attempt, long baseMs, long maxMs) {
+        int shift = Math.min(Math.max(attempt, 0), 30);
+        return Math.max(1, Math.min(maxMs, baseMs << shift));
+    }
+}
@@ -0,0 +1,319 @@
+import json.HeaderList;
+import json.JSONBody;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of a batch of {@link JSONBody.Traffic} records, sent with
+ * content type {@value #CONTENT_TYPE}.
+ * <p>
+ * Every string except the URL goes through a per-batch dictionary, so header names and
+ * repeated values (methods, content types, server banners...) are written once per batch.
+ * Bodies are raw bytes and body hashes are raw digests. Integers are unsigned LEB128
+ * varints; a string reference is the dictionary index plus one, 0 meaning null.
+ * <pre>
+ *   magic "DBTB" (4 bytes) | format version (byte)
+ *   dictionary size (varint) | entries: [length (varint)][UTF-8 bytes] ...
+ *   record count (varint) | records:
+ *     url [length][UTF-8] | method (ref) | status code (varint)
+ *     request headers, in order: count (varint), [name (ref)][value (ref)] ...
+ *     response headers: same
+ *     flags (byte): 1 request body omitted, 2 response body omitted,
+ *                   4 request body hash present, 8 response body hash present,
+ *                   16 request body truncated, 32 response body truncated,
+ *                   64 request body uploaded, 128 response body uploaded
+ *     request body hash [length][bytes] if present | response body hash, same
+ *     original request body length (varint) if truncated or uploaded | response body, same
+ *     request body [length][bytes] unless omitted or uploaded | response body, same
+ *     mime type (ref) | tool source (ref)
+ *     record ID [length][UTF-8] if a body is uploaded
+ * </pre>
+ * Version 2 added the truncated and uploaded flags, the original lengths and the record ID.
+ * A server that only reads version 1 rejects the version 2 content type (or the payload),
+ * and the batcher falls back to JSON.
+ */
+public final class BinaryTrafficCodec {
+
+    public static final String CONTENT_TYPE = "application/vnd.deepbounty.traffic-batch.v2";
+
+    private static final byte[] MAGIC = {'D', 'B', 'T', 'B'};
+    private static final byte FORMAT_VERSION = 2;
+
+    private static final int FLAG_REQUEST_OMITTED = 1;
+    private static final int FLAG_RESPONSE_OMITTED = 2;
+    private static final int FLAG_REQUEST_HASH = 4;
+    private static final int FLAG_RESPONSE_HASH = 8;
+    private static final int FLAG_REQUEST_TRUNCATED = 16;
+    private static final int FLAG_RESPONSE_TRUNCATED = 32;
+    private static final int FLAG_REQUEST_UPLOADED = 64;
+    private static final int FLAG_RESPONSE_UPLOADED = 128;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private BinaryTrafficCodec() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Encode a batch
+     *
+     * @return the payload as consecutive parts (dictionary first, then records)
+     */
+    public static List<byte[]> encode(List<JSONBody.Traffic> batch) {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        TrafficSerializer.ByteSink records = new TrafficSerializer.ByteSink(64 * 1024);
+
+        writeVarint(records, batch.size());
+        for (JSONBody.Traffic traffic : batch) {
+            writeString(records, traffic.url());
+            writeRef(records, dictionary, traffic.method());
+            writeVarint(records, traffic.statusCode());
+            writeHeaders(records, dictionary, traffic.requestHeaders());
+            writeHeaders(records, dictionary, traffic.responseHeaders());
+
+            int flags = (traffic.requestBodyOmitted() ? FLAG_REQUEST_OMITTED : 0)
+                    | (traffic.responseBodyOmitted() ? FLAG_RESPONSE_OMITTED : 0)
+                    | (traffic.requestBodyHash() != null ? FLAG_REQUEST_HASH : 0)
+                    | (traffic.responseBodyHash() != null ? FLAG_RESPONSE_HASH : 0)
+                    | transferFlag(traffic.requestBodyTransfer(), FLAG_REQUEST_TRUNCATED, FLAG_REQUEST_UPLOADED)
+                    | transferFlag(traffic.responseBodyTransfer(), FLAG_RESPONSE_TRUNCATED, FLAG_RESPONSE_UPLOADED);
+            records.write(flags);
+            if (traffic.requestBodyHash() != null) {
+                writeBytes(records, HEX.parseHex(traffic.requestBodyHash()));
+            }
+            if (traffic.responseBodyHash() != null) {
+                writeBytes(records, HEX.parseHex(traffic.responseBodyHash()));
+            }
+            if (traffic.requestBodyTransfer() != null) {
+                writeVarint(records, traffic.requestBodyLength());
+            }
+            if (traffic.responseBodyTransfer() != null) {
+                writeVarint(records, traffic.responseBodyLength());
+            }
+            if ((flags & (FLAG_REQUEST_OMITTED | FLAG_REQUEST_UPLOADED)) == 0) {
+                writeBytes(records, traffic.requestBody());
+            }
+            if ((flags & (FLAG_RESPONSE_OMITTED | FLAG_RESPONSE_UPLOADED)) == 0) {
+                writeBytes(records, traffic.responseBody());
+            }
+
+            writeRef(records, dictionary, traffic.mimeType());
+            writeRef(records, dictionary, traffic.toolSource());
+            if ((flags & (FLAG_REQUEST_UPLOADED | FLAG_RESPONSE_UPLOADED)) != 0) {
+                writeString(records, traffic.recordId());
+            }
+        }
+
+        TrafficSerializer.ByteSink head = new TrafficSerializer.ByteSink(4096);
+        head.write(MAGIC, 0, MAGIC.length);
+        head.write(FORMAT_VERSION);
+        writeVarint(head, dictionary.size());
+        for (String entry : dictionary.keySet()) {
+            writeString(head, entry);
+        }
+        return List.of(head.toByteArray(), records.toByteArray());
+    }
+
+    /**
+     * Decode a batch produced by {@link #encode}
+     *
+     * @throws IOException if the payload is truncated, malformed or from another format version
+     */
+    public static List<JSONBody.Traffic> decode(byte[] payload) throws IOException {
+        Reader in = new Reader(payload);
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) {
+                throw new IOException("Not a DeepBounty traffic batch");
+            }
+        }
+        int version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported batch format version: " + version);
+        }
+
+        int dictionarySize = in.readCount();
+        List<String> dictionary = new ArrayList<>(dictionarySize);
+        for (int i = 0; i < dictionarySize; i++) {
+            dictionary.add(in.readString());
+        }
+
+        int count = in.readCount();
+        List<JSONBody.Traffic> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String url = in.readString();
+            String method = in.readRef(dictionary);
+            int statusCode = in.readVarint();
+            HeaderList requestHeaders = in.readHeaders(dictionary);
+            HeaderList responseHeaders = in.readHeaders(dictionary);
+
+            int flags = in.readByte();
+            String requestBodyHash = (flags & FLAG_REQUEST_HASH) != 0 ? HEX.formatHex(in.readBytes()) : null;
+            String responseBodyHash = (flags & FLAG_RESPONSE_HASH) != 0 ? HEX.formatHex(in.readBytes()) : null;
+            boolean requestBodyOmitted = (flags & FLAG_REQUEST_OMITTED) != 0;
+            boolean responseBodyOmitted = (flags & FLAG_RESPONSE_OMITTED) != 0;
+            String requestBodyTransfer = transferOf(flags, FLAG_REQUEST_TRUNCATED, FLAG_REQUEST_UPLOADED);
+            String responseBodyTransfer = transferOf(flags, FLAG_RESPONSE_TRUNCATED, FLAG_RESPONSE_UPLOADED);
+            int requestBodyLength = requestBodyTransfer != null ? in.readVarint() : 0;
+            int responseBodyLength = responseBodyTransfer != null ? in.readVarint() : 0;
+            byte[] requestBody = (flags & (FLAG_REQUEST_OMITTED | FLAG_REQUEST_UPLOADED)) != 0 ? null : in.readBytes();
+            byte[] responseBody = (flags & (FLAG_RESPONSE_OMITTED | FLAG_RESPONSE_UPLOADED)) != 0 ? null : in.readBytes();
+
+            String mimeType = in.readRef(dictionary);
+            String toolSource = in.readRef(dictionary);
+            String recordId = (flags & (FLAG_REQUEST_UPLOADED | FLAG_RESPONSE_UPLOADED)) != 0 ? in.readString() : null;
+            batch.add(new JSONBody.Traffic(url, method, statusCode, requestHeaders, responseHeaders,
+                    requestBody, responseBody, mimeType, requestBodyHash, responseBodyHash,
+                    requestBodyOmitted, responseBodyOmitted, toolSource, recordId,
+                    requestBodyTransfer, responseBodyTransfer, requestBodyLength, responseBodyLength));
+        }
+        if (in.remaining() != 0) {
+            throw new IOException(in.remaining() + " trailing bytes after the last record");
+        }
+        return batch;
+    }
+
+    private static int transferFlag(String transfer, int truncatedFlag, int uploadedFlag) {
+        if (TrafficSerializer.TRANSFER_TRUNCATED.equals(transfer)) {
+            return truncatedFlag;
+        }
+        return TrafficSerializer.TRANSFER_UPLOADED.equals(transfer) ? uploadedFlag : 0;
+    }
+
+    private static String transferOf(int flags, int truncatedFlag, int uploadedFlag) {
+        if ((flags & truncatedFlag) != 0) {
+            return TrafficSerializer.TRANSFER_TRUNCATED;
+        }
+        return (flags & uploadedFlag) != 0 ? TrafficSerializer.TRANSFER_UPLOADED : null;
+    }
+
+    private static void writeHeaders(TrafficSerializer.ByteSink out, Map<String, Integer> dictionary,
+                                     HeaderList headers) {
+        writeVarint(out, headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            writeRef(out, dictionary, headers.name(i));
+            writeRef(out, dictionary, headers.value(i));
+        }
+    }
+
+    private static void writeRef(TrafficSerializer.ByteSink out, Map<String, Integer> dictionary, String value) {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(value, index);
+        }
+        writeVarint(out, index + 1);
+    }
+
+    private static void writeString(TrafficSerializer.ByteSink out, String value) {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(TrafficSerializer.ByteSink out, byte[] value) {
+        writeVarint(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static void writeVarint(TrafficSerializer.ByteSink out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Bounds-checked cursor over a payload
+     */
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int remaining() {
+            return data.length - position;
+        }
+
+        int readByte() throws IOException {
+            if (position >= data.length) {
+                throw new IOException("Unexpected end of batch");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /**
+         * A length or element count, which cannot exceed the bytes left
+         */
+        int readCount() throws IOException {
+            int count = readVarint();
+            if (count < 0 || count > remaining()) {
+                throw new IOException("Invalid length: " + count);
+            }
+            return count;
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readCount();
+            byte[] value = new byte[length];
+            System.arraycopy(data, position, value, 0, length);
+            position += length;
+            return value;
+        }
+
+        String readString() throws IOException {
+            int length = readCount();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String readRef(List<String> dictionary) throws IOException {
+            int ref = readVarint();
+            if (ref == 0) {
+                return null;
+            }
+            if (ref < 0 || ref > dictionary.size()) {
+                throw new IOException("Invalid dictionary reference: " + ref);
+            }
+            return dictionary.get(ref - 1);
+        }
+
+        HeaderList readHeaders(List<String> dictionary) throws IOException {
+            int count = readCount();
+            String[] names = new String[count];
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                names[i] = readRef(dictionary);
+                values[i] = readRef(dictionary);
+                if (names[i] == null || values[i] == null) {
+                    throw new IOException("Null header name or value");
+                }
+            }
+            return new HeaderList(names, values);
+        }
+    }
+}
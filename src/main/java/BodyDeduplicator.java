@@ -0,0 +1,172 @@
+import burp.api.montoya.core.ByteArray;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed body deduplication.
+ * <p>
+ * References are opt-in per ingest node: bodies routed to a node are sent in full, and inline
+ * ones not even hashed, until the node answers a batch with a {@code missing} list (see
+ * {@link json.JSONBody.IngestAck#supportsReferences()}), which shows it resolves them.
+ * From then on every body above a small threshold going there is identified by its SHA-256.
+ * Once the node has acknowledged a batch, the hashes of the bodies it carried go into a
+ * bounded LRU keyed by node and hash; later records routed to that node whose body hash is
+ * in that LRU are sent with the hash only. Each node only gets references to bodies it
+ * acknowledged itself, so no body store shared between nodes is assumed. Recently sent
+ * bodies are also kept in a small byte-bounded cache, so they can be uploaded right away
+ * if the server reports that it does not have them after all.
+ */
+public class BodyDeduplicator {
+
+    // Bodies below this size are always sent inline: the hash would not save much
+    public static final int MIN_DEDUP_BODY_SIZE = 512;
+
+    private static final int ACKNOWLEDGED_MAX_ENTRIES = 100_000;
+    private static final long RECENT_BODIES_MAX_BYTES = 32L * 1024 * 1024;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    // "<node URL> <hash>" of bodies a node confirmed it stores (access-ordered LRU)
+    private final LinkedHashMap<String, Boolean> acknowledged = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > ACKNOWLEDGED_MAX_ENTRIES;
+        }
+    };
+
+    // URLs of the nodes that showed they resolve hash references
+    private final Set<String> referenceNodes = ConcurrentHashMap.newKeySet();
+
+    // Recently sent bodies, kept for on-demand upload (insertion-ordered)
+    private final LinkedHashMap<String, byte[]> recentBodies = new LinkedHashMap<>();
+    private long recentBodiesBytes;
+
+    /**
+     * Hex SHA-256 of a body, or null if the body is too small to be worth deduplicating
+     */
+    public String hash(byte[] body) {
+        if (body == null || body.length < MIN_DEDUP_BODY_SIZE) {
+            return null;
+        }
+        return HEX.formatHex(digests.get().digest(body));
+    }
+
+    /**
+     * Hex SHA-256 of a body read from Burp in slices of at most {@code sliceSize} bytes,
+     * so a large body is never copied whole
+     */
+    public String hash(ByteArray body, int sliceSize) {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        int length = body.length();
+        for (int start = 0; start < length; start += sliceSize) {
+            digest.update(body.subArray(start, Math.min(length, start + sliceSize)).getBytes());
+        }
+        return HEX.formatHex(digest.digest());
+    }
+
+    /**
+     * Send hash references to a node from now on
+     *
+     * @return true if they were not sent before
+     */
+    public boolean enableReferences(String node) {
+        return referenceNodes.add(node);
+    }
+
+    /**
+     * Whether a node showed it resolves hash references, so bodies routed to it are worth hashing
+     */
+    public boolean acceptsReferences(String node) {
+        return referenceNodes.contains(node);
+    }
+
+    /**
+     * Whether a body can be sent to a node by hash, without remembering the body
+     */
+    public boolean isAcknowledged(String node, String hash) {
+        if (!acceptsReferences(node)) {
+            return false;
+        }
+        synchronized (acknowledged) {
+            return acknowledged.get(key(node, hash)) != null;
+        }
+    }
+
+    /**
+     * Whether a body can be sent to a node by hash.
+     * Bodies that are not yet acknowledged are remembered for a possible upload request.
+     */
+    public boolean isKnown(String node, String hash, byte[] body) {
+        if (isAcknowledged(node, hash)) {
+            return true;
+        }
+        remember(hash, body);
+        return false;
+    }
+
+    /**
+     * Record that a node has stored the bodies with these hashes
+     */
+    public void acknowledge(String node, Collection<String> hashes) {
+        synchronized (acknowledged) {
+            for (String hash : hashes) {
+                acknowledged.put(key(node, hash), Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Forget that a node has a body, so the next occurrence sent there is sent in full
+     */
+    public void forget(String node, String hash) {
+        synchronized (acknowledged) {
+            acknowledged.remove(key(node, hash));
+        }
+    }
+
+    private static String key(String node, String hash) {
+        return node + ' ' + hash;
+    }
+
+    /**
+     * Get a recently sent body by hash, or null if it is no longer cached
+     */
+    public byte[] recentBody(String hash) {
+        synchronized (recentBodies) {
+            return recentBodies.get(hash);
+        }
+    }
+
+    private void remember(String hash, byte[] body) {
+        if (body.length > RECENT_BODIES_MAX_BYTES / 4) {
+            return;
+        }
+        synchronized (recentBodies) {
+            if (recentBodies.put(hash, body) == null) {
+                recentBodiesBytes += body.length;
+            }
+            Iterator<byte[]> eldest = recentBodies.values().iterator();
+            while (recentBodiesBytes > RECENT_BODIES_MAX_BYTES && eldest.hasNext()) {
+                recentBodiesBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.MimeType;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Client-side capture rules, evaluated on Burp's thread before any body is read.
+ * <p>
+ * Rules come from the "Capture Rules" setting, one per line or separated by {@code ;}.
+ * Each rule is an action ({@code drop} or {@code keep}) followed by one or more
+ * conditions that must all match:
+ * <pre>
+ *   drop ext:png,jpg,css,woff2
+ *   drop status:304
+ *   drop status:500-599 host:*.cdn.example.com
+ *   drop length:&gt;5000000
+ *   drop mime:IMAGE_PNG,VIDEO
+ *   keep path:/api/**
+ *   drop header:X-No-Capture
+ * </pre>
+ * The first matching rule wins; traffic matching no rule is captured. The rule text is
+ * compiled once into a predicate chain and recompiled whenever the setting changes.
+ * Every rule counts how many responses it matched.
+ */
+public class CaptureRules {
+
+    /**
+     * A single condition evaluated against an exchange
+     */
+    @FunctionalInterface
+    private interface Condition {
+        boolean test(HttpRequest request, HttpResponse response);
+    }
+
+    /**
+     * A compiled rule with its hit counter
+     */
+    public static final class Rule {
+        private final String source;
+        private final boolean keep;
+        private final Condition[] conditions;
+        private final LongAdder hits = new LongAdder();
+
+        private Rule(String source, boolean keep, Condition[] conditions) {
+            this.source = source;
+            this.keep = keep;
+            this.conditions = conditions;
+        }
+
+        private boolean matches(HttpRequest request, HttpResponse response) {
+            for (Condition condition : conditions) {
+                if (!condition.test(request, response)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public String source() {
+            return source;
+        }
+
+        public long hits() {
+            return hits.sum();
+        }
+    }
+
+    private record Compiled(String source, Rule[] rules) {
+    }
+
+    private final MontoyaApi api;
+    private final Settings settings;
+    private volatile Compiled compiled = new Compiled("", new Rule[0]);
+
+    public CaptureRules(MontoyaApi api, Settings settings) {
+        this.api = api;
+        this.settings = settings;
+    }
+
+    /**
+     * Whether an exchange should be captured
+     */
+    public boolean shouldCapture(HttpRequest request, HttpResponse response) {
+        for (Rule rule : current().rules()) {
+            if (rule.matches(request, response)) {
+                rule.hits.increment();
+                return rule.keep;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hit counts per rule, in rule order
+     */
+    public Map<String, Long> hitCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Rule rule : current().rules()) {
+            counts.put(rule.source(), rule.hits());
+        }
+        return counts;
+    }
+
+    /**
+     * Get the compiled rules, recompiling if the setting changed
+     */
+    private Compiled current() {
+        Compiled current = compiled;
+        String source = settings.getCaptureRules();
+        if (source == null) {
+            source = "";
+        }
+        if (!source.equals(current.source())) {
+            current = new Compiled(source, compile(source));
+            compiled = current;
+            safeLogToOutput("Capture rules loaded: " + current.rules().length + " rule(s)");
+        }
+        return current;
+    }
+
+    /**
+     * Parse the rule text, skipping (and reporting) invalid rules
+     */
+    private Rule[] compile(String source) {
+        List<Rule> rules = new ArrayList<>();
+        for (String line : source.split("[;\\n]")) {
+            String text = line.trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            try {
+                rules.add(compileRule(text));
+            } catch (IllegalArgumentException e) {
+                safeLogToError("Ignoring capture rule '" + text + "': " + e.getMessage());
+            }
+        }
+        return rules.toArray(new Rule[0]);
+    }
+
+    private static Rule compileRule(String text) {
+        String[] tokens = text.split("\\s+");
+        boolean keep;
+        switch (tokens[0].toLowerCase(Locale.ROOT)) {
+            case "keep" -> keep = true;
+            case "drop" -> keep = false;
+            default -> throw new IllegalArgumentException("rules must start with 'keep' or 'drop'");
+        }
+        if (tokens.length < 2) {
+            throw new IllegalArgumentException("missing condition");
+        }
+
+        Condition[] conditions = new Condition[tokens.length - 1];
+        for (int i = 1; i < tokens.length; i++) {
+            conditions[i - 1] = compileCondition(tokens[i]);
+        }
+        return new Rule(text, keep, conditions);
+    }
+
+    private static Condition compileCondition(String token) {
+        int colon = token.indexOf(':');
+        if (colon <= 0 || colon == token.length() - 1) {
+            throw new IllegalArgumentException("expected key:value, got '" + token + "'");
+        }
+        String key = token.substring(0, colon).toLowerCase(Locale.ROOT);
+        String value = token.substring(colon + 1);
+
+        return switch (key) {
+            case "ext" -> {
+                Set<String> extensions = lowerCaseSet(value);
+                yield (request, response) -> extensions.contains(extensionOf(request.pathWithoutQuery()));
+            }
+            case "path" -> {
+                Pattern pattern = globToPattern(value, '/', false);
+                yield (request, response) -> pattern.matcher(request.pathWithoutQuery()).matches();
+            }
+            case "host" -> {
+                // Unlike paths, '*' in a host pattern spans labels: *.cdn.com matches a.b.cdn.com
+                Pattern pattern = globToPattern(value, null, true);
+                yield (request, response) -> request.httpService() != null
+                        && pattern.matcher(request.httpService().host()).matches();
+            }
+            case "status" -> {
+                long[][] ranges = parseRanges(value);
+                yield (request, response) -> inRanges(response.statusCode(), ranges);
+            }
+            case "length" -> {
+                long[][] ranges = parseRanges(value);
+                yield (request, response) -> {
+                    long length = contentLength(response);
+                    return length >= 0 && inRanges(length, ranges);
+                };
+            }
+            case "mime" -> {
+                Set<MimeType> mimeTypes = new HashSet<>();
+                for (String name : value.split(",")) {
+                    try {
+                        mimeTypes.add(MimeType.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("unknown MIME type '" + name + "'");
+                    }
+                }
+                yield (request, response) -> mimeTypes.contains(response.statedMimeType());
+            }
+            case "header" -> (request, response) -> response.hasHeader(value) || request.hasHeader(value);
+            default -> throw new IllegalArgumentException("unknown condition '" + key + "'");
+        };
+    }
+
+    /**
+     * Content-Length of the response from its header, or -1 if absent or invalid
+     */
+    private static long contentLength(HttpResponse response) {
+        String header = response.headerValue("Content-Length");
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String extensionOf(String path) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        return dot > slash ? path.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static Set<String> lowerCaseSet(String value) {
+        Set<String> set = new HashSet<>();
+        for (String item : value.split(",")) {
+            String trimmed = item.trim().toLowerCase(Locale.ROOT);
+            set.add(trimmed.startsWith(".") ? trimmed.substring(1) : trimmed);
+        }
+        return set;
+    }
+
+    /**
+     * Parse "304", "500-599", "&gt;1000", "&lt;10" or comma-separated combinations into [min, max] pairs
+     */
+    private static long[][] parseRanges(String value) {
+        String[] parts = value.split(",");
+        long[][] ranges = new long[parts.length][];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i].trim();
+                if (part.startsWith(">")) {
+                    ranges[i] = new long[]{Long.parseLong(part.substring(1)) + 1, Long.MAX_VALUE};
+                } else if (part.startsWith("<")) {
+                    ranges[i] = new long[]{Long.MIN_VALUE, Long.parseLong(part.substring(1)) - 1};
+                } else if (part.indexOf('-') > 0) {
+                    int dash = part.indexOf('-');
+                    ranges[i] = new long[]{Long.parseLong(part.substring(0, dash)), Long.parseLong(part.substring(dash + 1))};
+                } else {
+                    long exact = Long.parseLong(part);
+                    ranges[i] = new long[]{exact, exact};
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number range '" + value + "'");
+        }
+        return ranges;
+    }
+
+    private static boolean inRanges(long value, long[][] ranges) {
+        for (long[] range : ranges) {
+            if (value >= range[0] && value <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Convert a glob to a regex: '*' stays within one separator-delimited part, '**' spans parts.
+     * Without a separator, '*' matches anything.
+     */
+    private static Pattern globToPattern(String glob, Character separator, boolean caseInsensitive) {
+        StringBuilder regex = new StringBuilder();
+        String notSeparator = separator == null ? ".*" : "[^" + Pattern.quote(String.valueOf(separator)) + "]*";
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append(notSeparator);
+                }
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), caseInsensitive ? Pattern.CASE_INSENSITIVE : 0);
+    }
+
+    /**
+     * Safely log to output, checking if API is available
+     */
+    private void safeLogToOutput(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToOutput(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+
+    /**
+     * Safely log to error, checking if API is available
+     */
+    private void safeLogToError(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToError(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import burp.api.montoya.MontoyaApi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Circuit breaker for calls to the DeepBounty server.
+ * <p>
+ * After the configured number of consecutive failures the circuit opens and calls
+ * are rejected without touching the network. Once the open period has passed a
+ * single probe is let through (half-open): success closes the circuit, failure
+ * opens it again for twice as long, up to five minutes. Only state changes are
+ * logged, so an unreachable server produces a handful of lines, not one per call.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final long MAX_OPEN_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final MontoyaApi api;
+    private final String name;
+    private final Settings settings;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int consecutiveOpens;
+    private long openUntilNanos;
+    private boolean probeInFlight;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    public CircuitBreaker(MontoyaApi api, String name, Settings settings) {
+        this.api = api;
+        this.name = name;
+        this.settings = settings;
+    }
+
+    /**
+     * Whether a call may go out now. In the half-open state only one caller gets true
+     * until its outcome is recorded.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.nanoTime() - openUntilNanos >= 0) {
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * The server answered (even with a non-retryable error)
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            consecutiveOpens = 0;
+            transition(State.CLOSED);
+        }
+    }
+
+    /**
+     * The call failed in a way worth retrying (I/O error, 429, 5xx or a refused API key)
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN
+                || (state == State.CLOSED && consecutiveFailures >= settings.getCircuitBreakerFailureThreshold())) {
+            open();
+        }
+    }
+
+    private void open() {
+        long baseNanos = TimeUnit.SECONDS.toNanos(settings.getCircuitBreakerOpenSeconds());
+        long openNanos = Math.min(MAX_OPEN_NANOS, baseNanos << Math.min(consecutiveOpens, 16));
+        consecutiveOpens++;
+        openUntilNanos = System.nanoTime() + openNanos;
+        opened.increment();
+        transition(State.OPEN);
+    }
+
+    private void transition(State next) {
+        State previous = state;
+        state = next;
+        String message = name + " circuit " + previous + " -> " + next;
+        if (next == State.OPEN) {
+            safeLogToError(message + " after " + consecutiveFailures + " consecutive failures, retrying in "
+                    + TimeUnit.NANOSECONDS.toSeconds(openUntilNanos - System.nanoTime()) + " s");
+        } else {
+            safeLogToOutput(message);
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Milliseconds until the circuit lets a probe through (0 if calls are allowed)
+     */
+    public synchronized long remainingOpenMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openUntilNanos - System.nanoTime()));
+    }
+
+    /**
+     * Number of calls rejected while the circuit was open
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Number of times the circuit opened
+     */
+    public long getOpenedCount() {
+        return opened.sum();
+    }
+
+    /**
+     * Safely log to output, checking if API is available
+     */
+    private void safeLogToOutput(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToOutput(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+
+    /**
+     * Safely log to error, checking if API is available
+     */
+    private void safeLogToError(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToError(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+}
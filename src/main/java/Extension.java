@@ -10,16 +10,44 @@ public class Extension implements BurpExtension {
         // Initialize settings
         Settings settings = new Settings(api);
 
+        // Pipeline counters and latencies, shown in the DeepBounty tab
+        Metrics metrics = new Metrics();
+
+        // Shared connection pool for every call to the server
+        Transport transport = new Transport(settings, metrics);
+
         // Initialize scope manager
-        Scope scope = new Scope(api, settings);
+        Scope scope = new Scope(api, settings, transport, metrics);
 
-        // Start periodic scope version check (every 10 seconds)
-        scope.startScopeVersionCheck();
+        // Restore the last known scope before any traffic is handled
+        scope.loadSnapshot();
 
         // Initialize and register HTTP handler for traffic interception
-        Handler handler = new Handler(api, settings, scope);
+        Handler handler = new Handler(api, settings, scope, transport, metrics);
         api.http().registerHttpHandler(handler);
 
+        // Send history for hosts that enter the scope, resuming an interrupted backfill
+        Backfill backfill = new Backfill(api, settings, scope, handler, metrics);
+        scope.setScopeChangeListener(backfill);
+        backfill.resume();
+
+        // Start background scope synchronization (after the listener, so the first update is seen)
+        scope.startScopeVersionCheck();
+
+        // Status tab
+        MetricsTab metricsTab = new MetricsTab(api, metrics, settings);
+        metricsTab.register();
+
+        // Flush buffered traffic when the extension is unloaded
+        api.extension().registerUnloadingHandler(() -> {
+            metricsTab.stop();
+            scope.shutdown();
+            backfill.shutdown();
+            handler.shutdown();
+            api.logging().logToOutput("DeepBounty connection statistics: " + transport.statsSummary());
+            transport.shutdown();
+        });
+
         api.logging().logToOutput("DeepBounty extension loaded successfully");
     }
 }
@@ -1,21 +1,21 @@
 import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.ToolType;
 import burp.api.montoya.http.handler.*;
 import burp.api.montoya.http.message.HttpHeader;
 import burp.api.montoya.http.message.MimeType;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import json.HeaderList;
 import json.JSONBody;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * HTTP Handler for intercepting and forwarding traffic to the server
@@ -25,8 +25,29 @@ public class Handler implements HttpHandler {
     private final MontoyaApi api;
     private final Settings settings;
     private final Scope scope;
-    private final Gson gson;
-    private final HttpClient httpClient;
+    private final IngestBatcher batcher;
+    private final CaptureRules captureRules;
+    private final BodyDeduplicator deduplicator = new BodyDeduplicator();
+    private final LargeBodies largeBodies;
+    private final RateLimiter rateLimiter;
+    private final HeaderInterner headerInterner = new HeaderInterner(HEADER_POOL_MAX_ENTRIES);
+    private final ThreadPoolExecutor captureWorkers;
+    private final Metrics metrics;
+    private final LongAdder droppedCaptures = new LongAdder();
+
+    // Captures waiting for a worker; beyond this they are dropped and counted
+    private static final int CAPTURE_QUEUE_CAPACITY = 1024;
+
+    // Distinct header names and common values kept in the header pool
+    private static final int HEADER_POOL_MAX_ENTRIES = 4096;
+
+    /**
+     * What the handler keeps from a response before handing it to a worker.
+     * Burp messages are immutable, so holding the references is enough; bodies
+     * are only read on the worker thread.
+     */
+    private record Capture(HttpRequest request, HttpResponse response, ToolType tool) {
+    }
 
     // Allowed Mime types for processing
     private static final Set<MimeType> ALLOWED_MIMES = Set.of(
@@ -34,72 +55,68 @@ public class Handler implements HttpHandler {
             MimeType.SCRIPT, MimeType.PLAIN_TEXT
     );
 
-    public Handler(MontoyaApi api, Settings settings, Scope scope) {
-        // Configure HttpClient with virtual threads for async operations
-        this.httpClient = HttpClient.newBuilder()
-                .version(HttpClient.Version.HTTP_1_1)
-                .executor(Executors.newVirtualThreadPerTaskExecutor())
-                .connectTimeout(Duration.ofSeconds(5))
-                .build();
-        this.gson = new GsonBuilder()
-                .disableHtmlEscaping()
-                .create();
+    public Handler(MontoyaApi api, Settings settings, Scope scope, Transport transport, Metrics metrics) {
         this.api = api;
         this.settings = settings;
         this.scope = scope;
+        this.metrics = metrics;
+        this.batcher = new IngestBatcher(api, settings, transport, deduplicator, metrics);
+        this.largeBodies = new LargeBodies(api, settings, transport, batcher.getRing(), deduplicator, metrics);
+        batcher.setDropListener(largeBodies::abort);
+        this.captureRules = new CaptureRules(api, settings);
+        this.rateLimiter = new RateLimiter(settings);
+        int workers = settings.getCaptureWorkers();
+        this.captureWorkers = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(CAPTURE_QUEUE_CAPACITY),
+                Thread.ofPlatform().name("deepbounty-capture-", 0).daemon(true).factory(),
+                (task, executor) -> droppedCaptures.increment());
+
+        metrics.gauge("capture.workerBacklog", () -> captureWorkers.getQueue().size());
+        metrics.gauge("capture.droppedByWorkers", this::getDroppedCaptures);
+        metrics.gauge("capture.throttledByTool", rateLimiter::getThrottledByTool);
+        metrics.gauge("capture.throttledByHost", rateLimiter::getThrottledByHost);
+        metrics.gauge("capture.ruleHits", captureRules::hitCounts);
+        metrics.gauge("capture.pooledHeaderStrings", headerInterner::size);
         api.logging().logToOutput("Handler initialized successfully");
     }
 
     /**
-     * Send traffic data to DeepBounty server asynchronously
+     * Queue traffic data for batched delivery to the DeepBounty server
      */
     private void sendToServer(JSONBody.Traffic traffic) {
-        String serverUrl = settings.getServerUrl();
-        String apiKey = settings.getBurpsuiteKey();
-
-        // Validate settings
-        if (serverUrl == null || serverUrl.isEmpty()) {
-            return;
-        }
-        if (apiKey == null || apiKey.isEmpty()) {
-            return;
+        if (batcher.add(traffic)) {
+            metrics.increment(Metrics.Counter.QUEUED);
+        } else {
+            metrics.increment(Metrics.Counter.REJECTED_BY_QUEUE);
         }
+    }
 
+    /**
+     * Flush pending traffic and stop background delivery
+     */
+    public void shutdown() {
+        captureWorkers.shutdown();
         try {
-            String jsonPayload = gson.toJson(traffic);
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(serverUrl + "/ingest"))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonPayload))
-                    .timeout(Duration.ofSeconds(10))
-                    .build();
-
-            // Async send (Fire and Forget)
-            httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
-        } catch (Exception e) {
-            api.logging().logToError("Error creating request: " + e.getMessage());
+            captureWorkers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        largeBodies.shutdown();
+        batcher.shutdown();
     }
 
     /**
-     * Convert Burp HttpHeaders to Map<String, String>
+     * Number of captures dropped because the workers could not keep up
      */
-    private Map<String, String> mapHeaders(List<HttpHeader> headers) {
-        Map<String, String> headerMap = new HashMap<>();
-        if (headers != null) {
-            for (HttpHeader header : headers) {
-                // Concatenate multiple values for same header name
-                String existingValue = headerMap.get(header.name());
-                if (existingValue != null) {
-                    headerMap.put(header.name(), existingValue + "; " + header.value());
-                } else {
-                    headerMap.put(header.name(), header.value());
-                }
-            }
-        }
-        return headerMap;
+    public long getDroppedCaptures() {
+        return droppedCaptures.sum();
+    }
+
+    /**
+     * Convert Burp HttpHeaders to an ordered header list (see HeaderInterner#toHeaderList)
+     */
+    private HeaderList mapHeaders(List<HttpHeader> headers) {
+        return headerInterner.toHeaderList(headers);
     }
 
     @Override
@@ -110,38 +127,158 @@ public class Handler implements HttpHandler {
 
     @Override
     public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived responseReceived) {
+        long start = System.nanoTime();
         try {
-            // Filter mime types
-            MimeType mimeType = responseReceived.inferredMimeType();
-            if (!ALLOWED_MIMES.contains(mimeType)) {
+            metrics.increment(Metrics.Counter.RESPONSES_SEEN);
+            var initiatingRequest = responseReceived.initiatingRequest();
+
+            // Check if the request host is in scope before processing
+            long scopeStart = System.nanoTime();
+            boolean inScope = scope.isInScope(initiatingRequest);
+            metrics.record(Metrics.Timer.SCOPE_CHECK, System.nanoTime() - scopeStart);
+            if (!inScope) {
+                metrics.increment(Metrics.Counter.OUT_OF_SCOPE);
                 return ResponseReceivedAction.continueWith(responseReceived);
             }
 
-            var initiatingRequest = responseReceived.initiatingRequest();
+            // Apply capture rules before any body is read
+            if (!captureRules.shouldCapture(initiatingRequest, responseReceived)) {
+                metrics.increment(Metrics.Counter.FILTERED_BY_RULES);
+                return ResponseReceivedAction.continueWith(responseReceived);
+            }
 
-            // Check if the request URL is in scope before processing
-            if (!scope.isInScope(initiatingRequest.url())) {
+            // Per-tool and per-host rate limits
+            ToolType tool = responseReceived.toolSource().toolType();
+            String host = initiatingRequest.httpService() != null ? initiatingRequest.httpService().host() : null;
+            if (!rateLimiter.tryAcquire(tool, host)) {
+                metrics.increment(Metrics.Counter.RATE_LIMITED);
                 return ResponseReceivedAction.continueWith(responseReceived);
             }
 
-            JSONBody.Traffic traffic = new JSONBody.Traffic(
-                    initiatingRequest.url(),
-                    initiatingRequest.method(),
-                    responseReceived.statusCode(),
-                    mapHeaders(initiatingRequest.headers()),
-                    mapHeaders(responseReceived.headers()),
-                    initiatingRequest.bodyToString(),
-                    responseReceived.bodyToString(),
-                    mimeType.name()
-            );
+            // Hand the rest of the work to a capture worker
+            Capture capture = new Capture(initiatingRequest, responseReceived, tool);
+            captureWorkers.execute(() -> process(capture));
+            metrics.increment(Metrics.Counter.HANDED_TO_WORKERS);
+
+        } catch (Exception e) {
+            api.logging().logToError("Error handling response: " + e.getMessage());
+        } finally {
+            metrics.record(Metrics.Timer.HANDLER, System.nanoTime() - start);
+        }
+
+        return ResponseReceivedAction.continueWith(responseReceived);
+    }
+
+    /**
+     * Filter, extract and queue a captured exchange (runs on a capture worker).
+     * An exchange with a body to upload moves to an upload worker, or is truncated
+     * if those are all busy.
+     */
+    private void process(Capture capture) {
+        if (largeBodies.isUploadEnabled()
+                && (!largeBodies.isInline(capture.request().body()) || !largeBodies.isInline(capture.response().body()))
+                && largeBodies.execute(() -> process(capture, true))) {
+            return;
+        }
+        process(capture, false);
+    }
+
+    private void process(Capture capture, boolean upload) {
+        try {
+            JSONBody.Traffic traffic = toTraffic(capture.request(), capture.response(), capture.tool(), upload);
+            if (traffic == null) {
+                metrics.increment(Metrics.Counter.FILTERED_BY_MIME);
+                return;
+            }
 
             // Send traffic data to server asynchronously
             sendToServer(traffic);
 
         } catch (Exception e) {
-            api.logging().logToError("Error handling response: " + e.getMessage());
+            api.logging().logToError("Error processing response: " + e.getMessage());
         }
+    }
 
-        return ResponseReceivedAction.continueWith(responseReceived);
+    /**
+     * Queue an exchange Burp captured earlier (see Backfill), with the same capture rules
+     * and filters as live traffic but no rate limits. Waits while the queue is half full,
+     * so live traffic keeps the other half.
+     *
+     * @return true if the exchange was queued, false if it was filtered out
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public boolean queueStored(HttpRequest request, HttpResponse response, ToolType tool) throws InterruptedException {
+        if (!captureRules.shouldCapture(request, response)) {
+            return false;
+        }
+        JSONBody.Traffic traffic = toTraffic(request, response, tool, largeBodies.isUploadEnabled());
+        return traffic != null && batcher.getQueue().offerBackground(traffic);
+    }
+
+    /**
+     * Build the record for an exchange, replacing bodies the server already has with their hash
+     * and bodies above the inline limit with an upload or a truncated copy (see LargeBodies)
+     *
+     * @param upload whether large bodies may be uploaded (they are truncated otherwise)
+     * @return the record, or null if its mime type is not captured
+     */
+    private JSONBody.Traffic toTraffic(HttpRequest request, HttpResponse response, ToolType tool, boolean upload) {
+        // Filter mime types
+        MimeType mimeType = response.inferredMimeType();
+        if (!ALLOWED_MIMES.contains(mimeType)) {
+            return null;
+        }
+
+        String url = request.url();
+        // Same host the batcher routes the record by, so uploads and references go to the record's node
+        String host = Scope.hostOf(url);
+        String recordId = upload ? UUID.randomUUID().toString() : null;
+        String node = batcher.getRing().nodeFor(host).url();
+        LargeBodies.Body requestBody = body(request.body(), host, node, recordId, "requestBody");
+        LargeBodies.Body responseBody = body(response.body(), host, node, recordId, "responseBody");
+
+        return new JSONBody.Traffic(
+                url,
+                request.method(),
+                response.statusCode(),
+                mapHeaders(request.headers()),
+                mapHeaders(response.headers()),
+                requestBody.bytes(),
+                responseBody.bytes(),
+                mimeType.name(),
+                requestBody.hash(),
+                responseBody.hash(),
+                requestBody.omitted(),
+                responseBody.omitted(),
+                tool.name(),
+                requestBody.isUploaded() || responseBody.isUploaded() ? recordId : null,
+                requestBody.transfer(),
+                responseBody.transfer(),
+                requestBody.length(),
+                responseBody.length()
+        );
+    }
+
+    /**
+     * Read a body for a record; only bodies within the inline limit are copied whole
+     *
+     * @param node URL of the node the record is routed to, which decides whether a hash reference is enough
+     */
+    private LargeBodies.Body body(ByteArray raw, String host, String node, String recordId, String field) {
+        if (!largeBodies.isInline(raw)) {
+            return largeBodies.prepare(raw, host, recordId, field);
+        }
+        byte[] bytes = raw.getBytes();
+
+        // Replace bodies the server already has with their hash, once the node accepts references
+        if (settings.isBodyDeduplicationEnabled() && deduplicator.acceptsReferences(node)) {
+            String hash = deduplicator.hash(bytes);
+            if (hash != null && deduplicator.isKnown(node, hash, bytes)) {
+                // Keep the bytes in case the node reports the body missing after all
+                return new LargeBodies.Body(bytes, hash, true, null, 0);
+            }
+            return new LargeBodies.Body(bytes, hash, false, null, 0);
+        }
+        return new LargeBodies.Body(bytes, null, false, null, 0);
     }
-}
\ No newline at end of file
+}
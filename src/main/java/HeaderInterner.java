@@ -0,0 +1,106 @@
+import burp.api.montoya.http.message.HttpHeader;
+import json.HeaderList;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded pool of canonical header strings.
+ * <p>
+ * Every header name is pooled, as is the value of headers whose values repeat across
+ * messages ({@code Content-Type}, {@code Server}, {@code Accept-Encoding}...). Queued
+ * records then share one copy of each of these strings instead of holding thousands of
+ * equal ones. Unlike {@link String#intern()}, the pool is private and is reset when it
+ * fills up, so hostile traffic with random header names cannot grow it without bound.
+ */
+public class HeaderInterner {
+
+    // Headers whose values are pooled, in lower case
+    private static final Set<String> COMMON_VALUE_HEADERS = Set.of(
+            "accept", "accept-encoding", "accept-language", "cache-control", "connection",
+            "content-encoding", "content-type", "pragma", "server", "transfer-encoding",
+            "user-agent", "vary", "x-content-type-options", "x-frame-options", "x-powered-by",
+            "strict-transport-security", "referrer-policy", "access-control-allow-origin",
+            "sec-fetch-dest", "sec-fetch-mode", "sec-fetch-site", "upgrade-insecure-requests"
+    );
+
+    // Values longer than this are unlikely to repeat and are never pooled
+    private static final int MAX_POOLED_VALUE_LENGTH = 128;
+
+    private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+    // Whether a canonical name is one of COMMON_VALUE_HEADERS, so names are lower-cased only once
+    private final ConcurrentHashMap<String, Boolean> commonValueNames = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    public HeaderInterner(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Convert Burp headers to an ordered header list, keeping repeated headers
+     * (Set-Cookie...) as separate entries and pooling names and common values
+     */
+    public HeaderList toHeaderList(List<HttpHeader> headers) {
+        if (headers == null || headers.isEmpty()) {
+            return HeaderList.EMPTY;
+        }
+        String[] names = new String[headers.size()];
+        String[] values = new String[headers.size()];
+        for (int i = 0; i < names.length; i++) {
+            HttpHeader header = headers.get(i);
+            names[i] = name(header.name());
+            values[i] = value(names[i], header.value());
+        }
+        return new HeaderList(names, values);
+    }
+
+    /**
+     * Get the canonical copy of a header name
+     */
+    public String name(String name) {
+        return canonical(name);
+    }
+
+    /**
+     * Get the canonical copy of a header value if the header is one whose values repeat,
+     * the value itself otherwise
+     *
+     * @param name the header name, as returned by {@link #name}
+     */
+    public String value(String name, String value) {
+        if (value.length() > MAX_POOLED_VALUE_LENGTH || !hasCommonValues(name)) {
+            return value;
+        }
+        return canonical(value);
+    }
+
+    private boolean hasCommonValues(String name) {
+        Boolean common = commonValueNames.get(name);
+        if (common == null) {
+            if (commonValueNames.size() >= maxEntries) {
+                commonValueNames.clear();
+            }
+            common = COMMON_VALUE_HEADERS.contains(name.toLowerCase(Locale.ROOT));
+            commonValueNames.put(name, common);
+        }
+        return common;
+    }
+
+    private String canonical(String value) {
+        String existing = pool.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (pool.size() >= maxEntries) {
+            pool.clear();
+        }
+        existing = pool.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    public int size() {
+        return pool.size();
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded, concurrent cache of host -> in-scope decisions.
+ * <p>
+ * Every entry is stamped with the scope version it was computed for, so installing
+ * a new scope invalidates the whole cache without touching it: entries with an older
+ * stamp are simply treated as misses and overwritten. Both positive and negative
+ * decisions are cached. When the cache is full it is cleared, which is cheap and
+ * keeps the hot set of hosts (a few hundred in practice) warm within a few requests.
+ */
+public final class HostDecisionCache {
+
+    private final int maxEntries;
+    // Value layout: scope version in the high 32 bits, decision in the lowest bit
+    private final ConcurrentHashMap<String, Long> decisions = new ConcurrentHashMap<>();
+
+    public HostDecisionCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Look up a cached decision
+     *
+     * @return TRUE / FALSE for a decision made under this scope version, or null on a miss
+     */
+    public Boolean get(String host, int scopeVersion) {
+        Long entry = decisions.get(host);
+        if (entry == null || (int) (entry >> 32) != scopeVersion) {
+            return null;
+        }
+        return (entry & 1L) != 0;
+    }
+
+    /**
+     * Remember a decision made under the given scope version
+     */
+    public void put(String host, int scopeVersion, boolean inScope) {
+        if (decisions.size() >= maxEntries) {
+            decisions.clear();
+        }
+        decisions.put(host, ((long) scopeVersion << 32) | (inScope ? 1L : 0L));
+    }
+
+    /**
+     * Number of cached hosts, including stale ones
+     */
+    public int size() {
+        return decisions.size();
+    }
+}
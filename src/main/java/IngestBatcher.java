@@ -0,0 +1,815 @@
+import burp.api.montoya.MontoyaApi;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import json.JSONBody;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Buffers captured traffic and ships it to the DeepBounty server in batches.
+ * A batch is flushed when it reaches the configured record count, payload size
+ * or age, whichever comes first. One flush thread runs per allowed concurrent
+ * request, so several batches can be in flight over the shared {@link Transport}.
+ * <p>
+ * With several ingest nodes configured, each batch is split by target host and every
+ * part goes to the node the {@link IngestRing} assigns that host to.
+ */
+public class IngestBatcher {
+
+    /**
+     * Encoding of batches sent to the bulk endpoint
+     */
+    public enum WireFormat {
+        JSON("JSON"),
+        BINARY("Binary");
+
+        private final String label;
+
+        WireFormat(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        /**
+         * Resolve a format from its settings label, defaulting to JSON
+         */
+        public static WireFormat fromLabel(String label) {
+            for (WireFormat format : values()) {
+                if (format.label.equals(label)) {
+                    return format;
+                }
+            }
+            return JSON;
+        }
+    }
+
+    // Status codes meaning the server has no bulk endpoint
+    private static final Set<Integer> BATCH_UNSUPPORTED_STATUSES = Set.of(404, 405, 415, 501);
+
+    // Status codes meaning the server does not read this binary format version: a server
+    // that only knows another version may also take the payload for malformed JSON
+    private static final Set<Integer> BINARY_UNSUPPORTED_STATUSES = Set.of(400, 404, 405, 415, 501);
+
+    // How long to stay in single-record (or JSON) mode before probing the bulk endpoint (or binary format) again
+    private static final long BATCH_REPROBE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private static final long DROP_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    // Replay back-off while the server is unreachable
+    private static final long REPLAY_MIN_BACKOFF_MS = 1000;
+    private static final long REPLAY_MAX_BACKOFF_MS = 60_000;
+
+    // Back-off between attempts of the same request
+    private static final long RETRY_BASE_BACKOFF_MS = 500;
+    private static final long RETRY_MAX_BACKOFF_MS = 30_000;
+
+    // How long records are held after the server refused the API key, unless the key changes
+    private static final long REJECTED_KEY_HOLD_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final String JSON_CONTENT_TYPE = "application/json";
+
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_SEPARATOR = {','};
+    private static final byte[] ARRAY_END = {']'};
+
+    /**
+     * Outcome of a delivery attempt
+     */
+    private enum Delivery {
+        DELIVERED,
+        // Transient failure (I/O error, 429, 5xx, refused API key or bad server URL): worth spooling and retrying
+        RETRYABLE,
+        // The server refused the payload, retrying would not help
+        DISCARDED
+    }
+
+    /**
+     * Result of a single request, with the delay the server asked for via Retry-After (or 0)
+     */
+    private record Attempt(Delivery delivery, long retryAfterMs) {
+    }
+
+    private final MontoyaApi api;
+    private final Settings settings;
+    private final TrafficSerializer serializer = new TrafficSerializer();
+    private final Gson gson = new Gson();
+    private final BodyDeduplicator deduplicator;
+    private final Transport transport;
+    private final Metrics metrics;
+
+    private final IngestQueue queue;
+    private long lastReportedDrops;
+    private long lastDropReportNanos;
+
+    private final Spool spool;
+    private final IngestRing ring;
+
+    // Delivery outcomes, in records (retries in requests)
+    private final LongAdder deliveredRecords = new LongAdder();
+    private final LongAdder discardedRecords = new LongAdder();
+    private final LongAdder spooledRecords = new LongAdder();
+    private final LongAdder lostRecords = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder lostBodyReferences = new LongAdder();
+
+    private volatile Consumer<JSONBody.Traffic> dropListener = traffic -> {
+    };
+    private volatile boolean running = true;
+    private volatile long batchUnsupportedSinceNanos = -1;
+    private volatile String rejectedApiKey;
+    private volatile long keyRejectedNanos;
+    private volatile long binaryUnsupportedSinceNanos = -1;
+    private final List<Thread> flushThreads = new ArrayList<>();
+    private final Thread replayThread;
+
+    public IngestBatcher(MontoyaApi api, Settings settings, Transport transport, BodyDeduplicator deduplicator,
+                         Metrics metrics) {
+        this.api = api;
+        this.settings = settings;
+        this.transport = transport;
+        this.metrics = metrics;
+        this.deduplicator = deduplicator;
+        this.queue = new IngestQueue(settings);
+        this.spool = openSpool();
+        this.ring = new IngestRing(api, settings, transport, metrics);
+        registerMetrics();
+        Thread.Builder flushThreadBuilder = Thread.ofPlatform().name("deepbounty-ingest-flush-", 0).daemon(true);
+        for (int i = 0; i < settings.getMaxConcurrentRequests(); i++) {
+            flushThreads.add(flushThreadBuilder.start(this::flushLoop));
+        }
+        this.replayThread = spool == null ? null : Thread.ofPlatform()
+                .name("deepbounty-spool-replay")
+                .daemon(true)
+                .start(this::replayLoop);
+    }
+
+    private void registerMetrics() {
+        metrics.gauge("queue.depth", queue::size);
+        metrics.gauge("queue.bytes", queue::queuedBytes);
+        metrics.gauge("queue.dropped", queue::droppedCount);
+        metrics.gauge("queue.drops", queue::dropSummary);
+        metrics.gauge("ingest.delivered", this::getDeliveredRecords);
+        metrics.gauge("ingest.discarded", this::getDiscardedRecords);
+        metrics.gauge("ingest.spooled", this::getSpooledRecords);
+        metrics.gauge("ingest.lost", this::getLostRecords);
+        metrics.gauge("ingest.retries", this::getRetries);
+        metrics.gauge("ingest.lostBodyReferences", lostBodyReferences::sum);
+        metrics.gauge("ingest.circuit", () -> ring.nodes().stream()
+                .map(node -> node.breaker().getState().name())
+                .collect(Collectors.joining(", ")));
+        metrics.gauge("ingest.circuitRejected", () -> ring.nodes().stream()
+                .mapToLong(node -> node.breaker().getRejectedCount())
+                .sum());
+        metrics.gauge("ingest.circuitOpened", () -> ring.nodes().stream()
+                .mapToLong(node -> node.breaker().getOpenedCount())
+                .sum());
+        if (spool != null) {
+            metrics.gauge("spool.bytes", spool::sizeBytes);
+            metrics.gauge("spool.evictedSegments", spool::evictedSegmentCount);
+            metrics.gauge("spool.corruptSegments", spool::corruptSegmentCount);
+        }
+    }
+
+    /**
+     * Open the disk spool, continuing with in-memory delivery only if it is unavailable
+     */
+    private Spool openSpool() {
+        try {
+            return new Spool(settings.getDataDirectory().resolve("spool"), settings);
+        } catch (Exception e) {
+            safeLogToError("Disk spool unavailable, undelivered traffic will be lost: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Queue a record for the next batch; it may be dropped according to the overflow policy
+     *
+     * @return false if the record was dropped
+     */
+    public boolean add(JSONBody.Traffic traffic) {
+        return queue.offer(traffic);
+    }
+
+    /**
+     * Set the listener told about records dropped by the queue or rejected by the server
+     */
+    public void setDropListener(Consumer<JSONBody.Traffic> listener) {
+        this.dropListener = listener;
+        queue.setDropListener(listener);
+    }
+
+    /**
+     * Get the queue feeding this batcher
+     */
+    public IngestQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Get the ring routing traffic to ingest nodes
+     */
+    public IngestRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Number of records the server accepted
+     */
+    public long getDeliveredRecords() {
+        return deliveredRecords.sum();
+    }
+
+    /**
+     * Number of records the server rejected as invalid
+     */
+    public long getDiscardedRecords() {
+        return discardedRecords.sum();
+    }
+
+    /**
+     * Number of records written to the disk spool after failed delivery
+     */
+    public long getSpooledRecords() {
+        return spooledRecords.sum();
+    }
+
+    /**
+     * Number of records lost because they could be neither delivered nor spooled
+     */
+    public long getLostRecords() {
+        return lostRecords.sum();
+    }
+
+    /**
+     * Number of requests sent again after a transient failure
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Stop the flush threads after sending whatever is still queued
+     */
+    public void shutdown() {
+        running = false;
+        flushThreads.forEach(Thread::interrupt);
+        if (replayThread != null) {
+            replayThread.interrupt();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        try {
+            for (Thread flushThread : flushThreads) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs > 0) {
+                    flushThread.join(remainingMs);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ring.shutdown();
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    /**
+     * Wait for a batch to fill up or age out, then send it.
+     * Each flush thread has at most one request in flight.
+     */
+    private void flushLoop() {
+        while (running) {
+            List<JSONBody.Traffic> batch;
+            try {
+                batch = queue.takeBatch(settings.getBatchMaxRecords(), settings.getBatchMaxBytes(),
+                        settings.getBatchFlushIntervalMs());
+            } catch (InterruptedException e) {
+                batch = queue.drainAll();
+            }
+
+            if (!batch.isEmpty()) {
+                ring.partition(batch, traffic -> Scope.hostOf(traffic.url())).forEach(this::send);
+            }
+            reportDrops();
+        }
+    }
+
+    /**
+     * Send the part of a batch routed to one node, spooling whatever it did not accept
+     */
+    private void send(IngestRing.Node node, List<JSONBody.Traffic> batch) {
+        if (sendBinary(node, batch)) {
+            return;
+        }
+        List<byte[]> undelivered = deliver(node, serialize(batch), batch);
+        if (undelivered.isEmpty()) {
+            acknowledgeBodies(node, batch);
+        } else {
+            spool(undelivered);
+        }
+    }
+
+    /**
+     * Log dropped records at most every 30 seconds
+     */
+    private synchronized void reportDrops() {
+        long dropped = queue.droppedCount();
+        long now = System.nanoTime();
+        if (dropped != lastReportedDrops && now - lastDropReportNanos >= DROP_REPORT_INTERVAL_NANOS) {
+            safeLogToError("Ingest queue full, dropped " + (dropped - lastReportedDrops)
+                    + " records (total " + queue.dropSummary() + ")");
+            lastReportedDrops = dropped;
+            lastDropReportNanos = now;
+        }
+    }
+
+    /**
+     * Drain the disk spool in order whenever the server accepts traffic again
+     */
+    private void replayLoop() {
+        int failures = 0;
+        while (running) {
+            try {
+                // Leave the servers alone while every node's circuit is open
+                long openMs = ring.remainingOpenMillis();
+                if (openMs > 0) {
+                    Thread.sleep(openMs);
+                    continue;
+                }
+
+                Spool.Batch batch = spool.read(settings.getBatchMaxRecords(), settings.getBatchMaxBytes());
+                if (batch == null) {
+                    Thread.sleep(REPLAY_MIN_BACKOFF_MS);
+                    continue;
+                }
+
+                List<byte[]> undelivered = deliver(batch.records());
+                if (undelivered.isEmpty()) {
+                    spool.commit(batch);
+                    failures = 0;
+                } else if (undelivered.size() < batch.records().size()) {
+                    // Only some nodes failed: requeue their records at the end rather than send the rest twice
+                    spool.append(undelivered);
+                    spool.commit(batch);
+                } else {
+                    // Servers still unhealthy, keep the records and try again later
+                    Thread.sleep(Backoff.delayMillis(failures++, REPLAY_MIN_BACKOFF_MS, REPLAY_MAX_BACKOFF_MS));
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                safeLogToError("Error replaying spooled traffic: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Persist records that could not be delivered
+     */
+    private void spool(List<byte[]> records) {
+        if (spool == null || !settings.isSpoolEnabled()) {
+            lostRecords.add(records.size());
+            if (ring.remainingOpenMillis() == 0) {
+                safeLogToError("Failed to deliver " + records.size() + " traffic records, dropping them");
+            }
+            return;
+        }
+        // A pending interrupt (shutdown) would make the file channel close itself mid-write
+        boolean interrupted = Thread.interrupted();
+        try {
+            spool.append(records);
+            spooledRecords.add(records.size());
+        } catch (Exception e) {
+            lostRecords.add(records.size());
+            safeLogToError("Failed to spool " + records.size() + " traffic records: " + e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Serialize each record to its JSON form
+     */
+    private List<byte[]> serialize(List<JSONBody.Traffic> batch) {
+        List<byte[]> records = new ArrayList<>(batch.size());
+        for (JSONBody.Traffic traffic : batch) {
+            long start = System.nanoTime();
+            records.add(serializer.serialize(traffic));
+            metrics.record(Metrics.Timer.SERIALIZATION, System.nanoTime() - start);
+        }
+        return records;
+    }
+
+    /**
+     * Send a batch in the binary wire format when it is selected and the server accepts it
+     *
+     * @return false if the batch still has to be sent as JSON
+     */
+    private boolean sendBinary(IngestRing.Node node, List<JSONBody.Traffic> batch) {
+        if (!useBinaryFormat() || !isServerConfigured()) {
+            return false;
+        }
+
+        Delivery delivery = post(node, "/ingest/batch", BinaryTrafficCodec.encode(batch),
+                BinaryTrafficCodec.CONTENT_TYPE, true, batch);
+        if (delivery == null) {
+            binaryUnsupportedSinceNanos = System.nanoTime();
+            safeLogToOutput("Server does not accept binary batches, falling back to JSON");
+            return false;
+        }
+        if (delivery == Delivery.RETRYABLE) {
+            // The spool keeps JSON records, whatever the wire format
+            spool(serialize(batch));
+        } else {
+            count(node, delivery, batch.size());
+            if (delivery == Delivery.DELIVERED) {
+                acknowledgeBodies(node, batch);
+            } else {
+                batch.forEach(dropListener);
+            }
+        }
+        return true;
+    }
+
+    private boolean isServerConfigured() {
+        String serverUrl = settings.getServerUrl();
+        String apiKey = settings.getBurpsuiteKey();
+        return serverUrl != null && !serverUrl.isEmpty() && apiKey != null && !apiKey.isEmpty();
+    }
+
+    /**
+     * Send serialized records, read back from the spool, to the nodes their hosts are routed to
+     *
+     * @return the records that hit a transient failure and should be retried later
+     */
+    private List<byte[]> deliver(List<byte[]> records) {
+        List<byte[]> undelivered = new ArrayList<>();
+        ring.partition(records, record -> {
+            String url = TrafficSerializer.urlOf(record);
+            return url == null ? null : Scope.hostOf(url);
+        }).forEach((node, part) -> undelivered.addAll(deliver(node, part, null)));
+        return undelivered;
+    }
+
+    /**
+     * Send serialized records to a node's bulk endpoint, or one by one when batching is unavailable
+     *
+     * @param source the records before serialization, to upload bodies the server reports missing from,
+     *               or null for records read back from the spool
+     * @return the records that hit a transient failure and should be retried later
+     */
+    private List<byte[]> deliver(IngestRing.Node node, List<byte[]> records, List<JSONBody.Traffic> source) {
+        // Not configured (or being edited): keep the records until the settings are complete
+        if (!isServerConfigured()) {
+            return records;
+        }
+        // The server refused this key: hold the records until it changes
+        if (isKeyRejected(settings.getBurpsuiteKey())) {
+            return records;
+        }
+
+        if (useBatchEndpoint()) {
+            Delivery delivery = post(node, "/ingest/batch", jsonArray(records), JSON_CONTENT_TYPE, true, source);
+            if (delivery == null) {
+                batchUnsupportedSinceNanos = System.nanoTime();
+                safeLogToOutput("Server does not support batch ingest, falling back to single-record mode");
+            } else if (delivery == Delivery.RETRYABLE) {
+                return records;
+            } else {
+                count(node, delivery, records.size());
+                if (delivery == Delivery.DISCARDED && source != null) {
+                    source.forEach(dropListener);
+                }
+                return List.of();
+            }
+        }
+
+        for (int i = 0; i < records.size(); i++) {
+            Delivery delivery = post(node, "/ingest", List.of(records.get(i)), JSON_CONTENT_TYPE, false, source);
+            if (delivery == Delivery.RETRYABLE) {
+                return records.subList(i, records.size());
+            }
+            count(node, delivery, 1);
+            if (delivery == Delivery.DISCARDED && source != null) {
+                dropListener.accept(source.get(i));
+            }
+        }
+        return List.of();
+    }
+
+    private void count(IngestRing.Node node, Delivery delivery, int records) {
+        if (delivery == Delivery.DELIVERED) {
+            deliveredRecords.add(records);
+            node.recordDelivered(records);
+        } else if (delivery == Delivery.DISCARDED) {
+            discardedRecords.add(records);
+        }
+    }
+
+    /**
+     * POST a payload to a node, retrying transient failures with jittered exponential back-off.
+     * Nothing is sent while the node's circuit breaker is open; the caller spools the records instead.
+     *
+     * @param source the records in the payload, if still at hand (see {@link #uploadMissingBodies})
+     * @return the outcome, or null if the bulk endpoint or content type turned out to be unsupported
+     */
+    private Delivery post(IngestRing.Node node, String path, List<byte[]> payload, String contentType,
+                          boolean batch, List<JSONBody.Traffic> source) {
+        CircuitBreaker breaker = node.breaker();
+        int maxAttempts = settings.getMaxRetryAttempts();
+        for (int attempt = 0; ; attempt++) {
+            // Nothing is sent while the server refuses the key
+            if (isKeyRejected(settings.getBurpsuiteKey()) || !breaker.allowRequest()) {
+                return Delivery.RETRYABLE;
+            }
+            Attempt result = attempt(node, path, payload, contentType, batch, source);
+            if (result.delivery() != Delivery.RETRYABLE) {
+                breaker.recordSuccess();
+                return result.delivery();
+            }
+            breaker.recordFailure();
+            if (attempt + 1 >= maxAttempts || !running || Thread.currentThread().isInterrupted()
+                    || isKeyRejected(settings.getBurpsuiteKey())) {
+                return Delivery.RETRYABLE;
+            }
+
+            long delayMs = Math.max(result.retryAfterMs(),
+                    Backoff.delayMillis(attempt, RETRY_BASE_BACKOFF_MS, RETRY_MAX_BACKOFF_MS));
+            try {
+                Thread.sleep(Math.min(delayMs, RETRY_MAX_BACKOFF_MS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Delivery.RETRYABLE;
+            }
+            retries.increment();
+        }
+    }
+
+    /**
+     * Send one request
+     */
+    private Attempt attempt(IngestRing.Node node, String path, List<byte[]> payload, String contentType,
+                            boolean batch, List<JSONBody.Traffic> source) {
+        try {
+            HttpRequest request = transport.newRequest(node.url() + path)
+                    .header("Content-Type", contentType)
+                    .POST(HttpRequest.BodyPublishers.ofByteArrays(payload))
+                    .build();
+            long start = System.nanoTime();
+            HttpResponse<String> response = transport.send(request, HttpResponse.BodyHandlers.ofString());
+            metrics.record(Metrics.Timer.INGEST_ROUND_TRIP, System.nanoTime() - start);
+            int status = response.statusCode();
+
+            Set<Integer> unsupported = BinaryTrafficCodec.CONTENT_TYPE.equals(contentType)
+                    ? BINARY_UNSUPPORTED_STATUSES : BATCH_UNSUPPORTED_STATUSES;
+            if (batch && unsupported.contains(status)) {
+                return new Attempt(null, 0);
+            }
+            if (status < 300) {
+                rejectedApiKey = null;
+                uploadMissingBodies(node, response.body(), source);
+                return new Attempt(Delivery.DELIVERED, 0);
+            }
+            if (status == 401 || status == 403) {
+                // The records are fine, the key is not: keep them until it is fixed
+                String apiKey = settings.getBurpsuiteKey();
+                if (!apiKey.equals(rejectedApiKey)) {
+                    safeLogToError("Server rejected the Burpsuite key (status " + status
+                            + "), holding traffic until it is changed");
+                }
+                rejectedApiKey = apiKey;
+                keyRejectedNanos = System.nanoTime();
+                return new Attempt(Delivery.RETRYABLE, 0);
+            }
+            if (status == 429 || status >= 500) {
+                return new Attempt(Delivery.RETRYABLE, retryAfterMillis(response));
+            }
+            safeLogToError("Server rejected traffic. Status: " + status);
+            return new Attempt(Delivery.DISCARDED, 0);
+        } catch (IOException e) {
+            return new Attempt(Delivery.RETRYABLE, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Attempt(Delivery.RETRYABLE, 0);
+        } catch (Exception e) {
+            // e.g. a malformed server URL: keep the records until the settings are fixed
+            safeLogToError("Error creating request: " + e.getMessage());
+            return new Attempt(Delivery.RETRYABLE, 0);
+        }
+    }
+
+    /**
+     * Whether the server refused this API key recently enough that sending again is pointless
+     */
+    private boolean isKeyRejected(String apiKey) {
+        return apiKey.equals(rejectedApiKey) && System.nanoTime() - keyRejectedNanos < REJECTED_KEY_HOLD_NANOS;
+    }
+
+    /**
+     * Delay requested by a Retry-After header given in seconds, or 0
+     */
+    private static long retryAfterMillis(HttpResponse<?> response) {
+        String retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            // HTTP-date form: fall back to our own back-off
+            return 0;
+        }
+    }
+
+    /**
+     * Upload bodies the server reported missing for hash-only references, and take an ack with a
+     * {@code missing} list as the node's opt-in to such references. A missing body is taken from
+     * the records just sent, which keep the bytes of omitted bodies, else from the recent cache.
+     * A body found in neither (a reference replayed from the spool whose body left the cache)
+     * is counted as lost; either way a body that could not be uploaded is forgotten, so its
+     * next occurrence is sent in full.
+     */
+    private void uploadMissingBodies(IngestRing.Node node, String ackJson, List<JSONBody.Traffic> source) {
+        if (ackJson == null || ackJson.isBlank()) {
+            return;
+        }
+        JSONBody.IngestAck ack;
+        try {
+            ack = gson.fromJson(ackJson, JSONBody.IngestAck.class);
+        } catch (JsonParseException e) {
+            return;
+        }
+        if (ack == null || !ack.supportsReferences()) {
+            return;
+        }
+        if (deduplicator.enableReferences(node.url())) {
+            safeLogToOutput("Ingest node " + node.url() + " accepts body references, deduplicating bodies");
+        }
+
+        for (String hash : ack.getMissing()) {
+            byte[] body = missingBody(hash, source);
+            if (body == null) {
+                lostBodyReferences.increment();
+            }
+            if (body == null || !uploadBody(node, hash, body)) {
+                deduplicator.forget(node.url(), hash);
+            }
+        }
+    }
+
+    /**
+     * Bytes of a body by hash, from the given records or else the recent cache, or null
+     */
+    private byte[] missingBody(String hash, List<JSONBody.Traffic> source) {
+        if (source != null) {
+            for (JSONBody.Traffic traffic : source) {
+                if (hash.equals(traffic.requestBodyHash()) && traffic.requestBody() != null
+                        && traffic.requestBodyTransfer() == null) {
+                    return traffic.requestBody();
+                }
+                if (hash.equals(traffic.responseBodyHash()) && traffic.responseBody() != null
+                        && traffic.responseBodyTransfer() == null) {
+                    return traffic.responseBody();
+                }
+            }
+        }
+        return deduplicator.recentBody(hash);
+    }
+
+    /**
+     * Upload one body to a node's content-addressed body endpoint
+     */
+    private boolean uploadBody(IngestRing.Node node, String hash, byte[] body) {
+        try {
+            HttpRequest request = transport.newRequest(node.url() + "/ingest/body/" + hash)
+                    .header("Content-Type", "application/octet-stream")
+                    .PUT(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build();
+            return transport.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() < 300;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Record the hashes of bodies sent in full, now that the node has them.
+     * Only done for nodes that accept references: others may not store bodies by hash.
+     */
+    private void acknowledgeBodies(IngestRing.Node node, List<JSONBody.Traffic> batch) {
+        if (!deduplicator.acceptsReferences(node.url())) {
+            return;
+        }
+        List<String> hashes = new ArrayList<>();
+        for (JSONBody.Traffic traffic : batch) {
+            // A truncated body is not stored whole, so it must be sent again next time
+            if (traffic.requestBodyHash() != null && !traffic.requestBodyOmitted()
+                    && !TrafficSerializer.TRANSFER_TRUNCATED.equals(traffic.requestBodyTransfer())) {
+                hashes.add(traffic.requestBodyHash());
+            }
+            if (traffic.responseBodyHash() != null && !traffic.responseBodyOmitted()
+                    && !TrafficSerializer.TRANSFER_TRUNCATED.equals(traffic.responseBodyTransfer())) {
+                hashes.add(traffic.responseBodyHash());
+            }
+        }
+        if (!hashes.isEmpty()) {
+            deduplicator.acknowledge(node.url(), hashes);
+        }
+    }
+
+    /**
+     * Wrap serialized records into a JSON array without copying them
+     */
+    private static List<byte[]> jsonArray(List<byte[]> records) {
+        List<byte[]> parts = new ArrayList<>(records.size() * 2 + 1);
+        parts.add(ARRAY_START);
+        for (int i = 0; i < records.size(); i++) {
+            if (i > 0) {
+                parts.add(ARRAY_SEPARATOR);
+            }
+            parts.add(records.get(i));
+        }
+        parts.add(ARRAY_END);
+        return parts;
+    }
+
+    /**
+     * Whether the next batch should be sent in the binary wire format
+     */
+    private boolean useBinaryFormat() {
+        if (settings.getWireFormat() != WireFormat.BINARY || !useBatchEndpoint()) {
+            return false;
+        }
+        long unsupportedSince = binaryUnsupportedSinceNanos;
+        if (unsupportedSince < 0) {
+            return true;
+        }
+        if (System.nanoTime() - unsupportedSince >= BATCH_REPROBE_INTERVAL_NANOS) {
+            binaryUnsupportedSinceNanos = -1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the bulk endpoint should be used for the next batch
+     */
+    private boolean useBatchEndpoint() {
+        if (!settings.isBatchEnabled()) {
+            return false;
+        }
+        long unsupportedSince = batchUnsupportedSinceNanos;
+        if (unsupportedSince < 0) {
+            return true;
+        }
+        // Probe again from time to time in case the server was upgraded
+        if (System.nanoTime() - unsupportedSince >= BATCH_REPROBE_INTERVAL_NANOS) {
+            batchUnsupportedSinceNanos = -1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Safely log to output, checking if API is available
+     */
+    private void safeLogToOutput(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToOutput(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+
+    /**
+     * Safely log to error, checking if API is available
+     */
+    private void safeLogToError(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToError(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+}
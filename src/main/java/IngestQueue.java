@@ -0,0 +1,408 @@
+import burp.api.montoya.core.ToolType;
+import json.HeaderList;
+import json.JSONBody;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Bounded queue between the HTTP handler and the ingest sender.
+ * Capacity is enforced both in records and in estimated bytes; what happens
+ * when it is full is decided by the configured {@link OverflowPolicy}.
+ * <p>
+ * Records are kept in one lane per Burp tool. Batches are assembled by weighted
+ * round-robin across the lanes, so a large Intruder or Scanner run cannot starve
+ * the Proxy traffic queued behind it. When the oldest records have to be evicted,
+ * they are taken from the lowest-weight lane first.
+ */
+public class IngestQueue {
+
+    /**
+     * What to do with a record that does not fit in the queue
+     */
+    public enum OverflowPolicy {
+        DROP_NEWEST("Drop newest"),
+        DROP_OLDEST("Drop oldest"),
+        BLOCK("Block");
+
+        private final String label;
+
+        OverflowPolicy(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        /**
+         * Resolve a policy from its settings label, defaulting to DROP_NEWEST
+         */
+        public static OverflowPolicy fromLabel(String label) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.label.equals(label)) {
+                    return policy;
+                }
+            }
+            return DROP_NEWEST;
+        }
+    }
+
+    private record Entry(JSONBody.Traffic traffic, long size, long enqueuedNanos) {
+    }
+
+    // Records taken from a lane per round-robin turn (tools not listed get 1)
+    private static final Map<ToolType, Integer> LANE_WEIGHTS = Map.of(
+            ToolType.PROXY, 8,
+            ToolType.REPEATER, 4,
+            ToolType.TARGET, 4,
+            ToolType.EXTENSIONS, 2
+    );
+
+    private static final ToolType[] TOOLS = ToolType.values();
+
+    private final Settings settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final List<ArrayDeque<Entry>> lanes = new ArrayList<>(TOOLS.length);
+    private final int[] weights = new int[TOOLS.length];
+    private int count;
+    private long queuedBytes;
+
+    // Weighted round-robin position
+    private int cursor;
+    private int credit;
+
+    // Drop counters
+    private final LongAdder droppedNewest = new LongAdder();
+    private final LongAdder droppedOldest = new LongAdder();
+    private final LongAdder droppedBlockTimeout = new LongAdder();
+    private final LongAdder droppedOversized = new LongAdder();
+    private volatile Consumer<JSONBody.Traffic> dropListener = traffic -> {
+    };
+
+    public IngestQueue(Settings settings) {
+        this.settings = settings;
+        for (int i = 0; i < TOOLS.length; i++) {
+            lanes.add(new ArrayDeque<>());
+            weights[i] = LANE_WEIGHTS.getOrDefault(TOOLS[i], 1);
+        }
+        this.credit = weights[0];
+    }
+
+    /**
+     * Set the listener told about every record the queue rejects or evicts, called outside the lock
+     */
+    public void setDropListener(Consumer<JSONBody.Traffic> listener) {
+        this.dropListener = listener;
+    }
+
+    /**
+     * Add a record, applying the overflow policy if the queue is full
+     *
+     * @return true if the record was queued
+     */
+    public boolean offer(JSONBody.Traffic traffic) {
+        List<JSONBody.Traffic> evicted = new ArrayList<>(0);
+        boolean queued = insert(traffic, evicted);
+        evicted.forEach(dropListener);
+        if (!queued) {
+            dropListener.accept(traffic);
+        }
+        return queued;
+    }
+
+    /**
+     * @param evicted receives the records evicted to make room
+     */
+    private boolean insert(JSONBody.Traffic traffic, List<JSONBody.Traffic> evicted) {
+        long size = estimateSize(traffic);
+        int maxRecords = settings.getQueueMaxRecords();
+        long maxBytes = settings.getQueueMaxBytes();
+
+        // A record larger than the whole queue can never fit
+        if (size > maxBytes) {
+            droppedOversized.increment();
+            return false;
+        }
+
+        lock.lock();
+        try {
+            if (!hasRoom(size, maxRecords, maxBytes)) {
+                switch (settings.getQueueOverflowPolicy()) {
+                    case DROP_NEWEST -> {
+                        droppedNewest.increment();
+                        return false;
+                    }
+                    case DROP_OLDEST -> {
+                        while (!hasRoom(size, maxRecords, maxBytes)) {
+                            Entry oldest = lanes.get(evictionLane()).pollFirst();
+                            count--;
+                            queuedBytes -= oldest.size();
+                            droppedOldest.increment();
+                            evicted.add(oldest.traffic());
+                        }
+                    }
+                    case BLOCK -> {
+                        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(settings.getQueueBlockTimeoutMs());
+                        while (!hasRoom(size, maxRecords, maxBytes)) {
+                            if (remainingNanos <= 0) {
+                                droppedBlockTimeout.increment();
+                                return false;
+                            }
+                            try {
+                                remainingNanos = notFull.awaitNanos(remainingNanos);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                droppedBlockTimeout.increment();
+                                return false;
+                            }
+                        }
+                    }
+                }
+            }
+
+            lanes.get(laneOf(traffic)).addLast(new Entry(traffic, size, System.nanoTime()));
+            count++;
+            queuedBytes += size;
+            // Wake the sender for the first record (to start the age timer) and for full batches
+            if (count == 1
+                    || count >= settings.getBatchMaxRecords()
+                    || queuedBytes >= settings.getBatchMaxBytes()) {
+                batchReady.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add a record without competing with live traffic: waits while the queue is half
+     * full or more, whatever the overflow policy, and never evicts anything
+     *
+     * @return false if the record is larger than the room left to background records
+     * @throws InterruptedException if interrupted while waiting (the record is not queued)
+     */
+    public boolean offerBackground(JSONBody.Traffic traffic) throws InterruptedException {
+        boolean queued = false;
+        try {
+            queued = insertBackground(traffic);
+            return queued;
+        } finally {
+            if (!queued) {
+                dropListener.accept(traffic);
+            }
+        }
+    }
+
+    private boolean insertBackground(JSONBody.Traffic traffic) throws InterruptedException {
+        long size = estimateSize(traffic);
+        if (size > settings.getQueueMaxBytes() / 2) {
+            droppedOversized.increment();
+            return false;
+        }
+
+        lock.lockInterruptibly();
+        try {
+            while (!hasRoom(size, settings.getQueueMaxRecords() / 2, settings.getQueueMaxBytes() / 2)) {
+                // Re-check now and then: the limits are settings and may be raised meanwhile
+                notFull.await(1, TimeUnit.SECONDS);
+            }
+            lanes.get(laneOf(traffic)).addLast(new Entry(traffic, size, System.nanoTime()));
+            count++;
+            queuedBytes += size;
+            if (count == 1
+                    || count >= settings.getBatchMaxRecords()
+                    || queuedBytes >= settings.getBatchMaxBytes()) {
+                batchReady.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until a batch is full or its oldest record has waited for maxAgeMs, then remove it
+     *
+     * @return the next batch, never empty
+     */
+    public List<JSONBody.Traffic> takeBatch(int maxRecords, long maxBytes, long maxAgeMs) throws InterruptedException {
+        long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (count == 0) {
+                    batchReady.awaitNanos(maxAgeNanos);
+                    continue;
+                }
+
+                long remainingNanos = oldestEnqueuedNanos() + maxAgeNanos - System.nanoTime();
+                if (count >= maxRecords || queuedBytes >= maxBytes || remainingNanos <= 0) {
+                    return removeBatch(maxRecords, maxBytes);
+                }
+                batchReady.awaitNanos(remainingNanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove everything still queued, used when shutting down
+     */
+    public List<JSONBody.Traffic> drainAll() {
+        lock.lock();
+        try {
+            return removeBatch(Integer.MAX_VALUE, Long.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove up to maxRecords / maxBytes by weighted round-robin over the lanes (always at least one record).
+     * Caller must hold the lock.
+     */
+    private List<JSONBody.Traffic> removeBatch(int maxRecords, long maxBytes) {
+        List<JSONBody.Traffic> batch = new ArrayList<>(Math.min(count, maxRecords));
+        long batchBytes = 0;
+        while (count > 0 && batch.size() < maxRecords) {
+            ArrayDeque<Entry> lane = lanes.get(cursor);
+            if (lane.isEmpty() || credit == 0) {
+                cursor = (cursor + 1) % lanes.size();
+                credit = weights[cursor];
+                continue;
+            }
+
+            Entry next = lane.peekFirst();
+            if (!batch.isEmpty() && batchBytes + next.size() > maxBytes) {
+                break;
+            }
+            lane.pollFirst();
+            count--;
+            credit--;
+            queuedBytes -= next.size();
+            batchBytes += next.size();
+            batch.add(next.traffic());
+        }
+        notFull.signalAll();
+        return batch;
+    }
+
+    /**
+     * Enqueue time of the oldest record across all lanes. Caller must hold the lock.
+     */
+    private long oldestEnqueuedNanos() {
+        long oldest = Long.MAX_VALUE;
+        boolean found = false;
+        for (ArrayDeque<Entry> lane : lanes) {
+            Entry head = lane.peekFirst();
+            if (head != null && (!found || head.enqueuedNanos() - oldest < 0)) {
+                oldest = head.enqueuedNanos();
+                found = true;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Non-empty lane with the lowest weight. Caller must hold the lock.
+     */
+    private int evictionLane() {
+        int lowest = -1;
+        for (int i = 0; i < lanes.size(); i++) {
+            if (!lanes.get(i).isEmpty() && (lowest < 0 || weights[i] < weights[lowest])) {
+                lowest = i;
+            }
+        }
+        return lowest;
+    }
+
+    private static int laneOf(JSONBody.Traffic traffic) {
+        String toolSource = traffic.toolSource();
+        if (toolSource != null) {
+            for (ToolType tool : TOOLS) {
+                if (tool.name().equals(toolSource)) {
+                    return tool.ordinal();
+                }
+            }
+        }
+        return ToolType.EXTENSIONS.ordinal();
+    }
+
+    private boolean hasRoom(long size, int maxRecords, long maxBytes) {
+        return count < maxRecords && queuedBytes + size <= maxBytes;
+    }
+
+    /**
+     * Number of records currently queued
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimated bytes currently queued
+     */
+    public long queuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Total number of records dropped for any reason
+     */
+    public long droppedCount() {
+        return droppedNewest.sum() + droppedOldest.sum() + droppedBlockTimeout.sum() + droppedOversized.sum();
+    }
+
+    /**
+     * Human-readable summary of the drop counters
+     */
+    public String dropSummary() {
+        return "newest=" + droppedNewest.sum()
+                + ", oldest=" + droppedOldest.sum()
+                + ", blockTimeout=" + droppedBlockTimeout.sum()
+                + ", oversized=" + droppedOversized.sum();
+    }
+
+    /**
+     * Cheap estimate of the serialized size of a record, used for the byte limits.
+     * Omitted bodies count too: their bytes stay in memory until the batch is acknowledged.
+     */
+    static long estimateSize(JSONBody.Traffic traffic) {
+        long size = 128;
+        size += length(traffic.url()) + length(traffic.method()) + length(traffic.mimeType());
+        size += traffic.requestBody().length + traffic.responseBody().length;
+        size += estimateSize(traffic.requestHeaders()) + estimateSize(traffic.responseHeaders());
+        return size;
+    }
+
+    private static long estimateSize(HeaderList headers) {
+        return headers.textLength() + 6L * headers.size();
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+}
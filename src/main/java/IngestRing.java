@@ -0,0 +1,344 @@
+import burp.api.montoya.MontoyaApi;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Routes ingest traffic over one or more DeepBounty ingest nodes by consistent hashing
+ * on the target host, so all traffic of a host lands on the same node.
+ * <p>
+ * Each node owns {@value #VIRTUAL_NODES} points on a 64-bit ring. A host goes to the
+ * first healthy node clockwise from its hash, so when a node fails only its share moves,
+ * spread over the others, and moves back once it recovers. A node is unhealthy while its
+ * circuit breaker is open or, with several nodes, while its last health check failed.
+ * <p>
+ * The node list comes from the "Ingest Endpoints" setting (the server URL when empty)
+ * and is rebuilt when the setting changes, keeping the state of nodes still listed.
+ */
+public class IngestRing {
+
+    /**
+     * One ingest endpoint
+     */
+    public static final class Node {
+        private final String url;
+        private final CircuitBreaker breaker;
+        private final LongAdder records = new LongAdder();
+        private volatile boolean healthCheckFailed;
+
+        Node(String url, CircuitBreaker breaker) {
+            this.url = url;
+            this.breaker = breaker;
+        }
+
+        /**
+         * Base URL, without a trailing slash
+         */
+        public String url() {
+            return url;
+        }
+
+        public CircuitBreaker breaker() {
+            return breaker;
+        }
+
+        /**
+         * Whether traffic should be routed here
+         */
+        public boolean isHealthy() {
+            return !healthCheckFailed && breaker.remainingOpenMillis() == 0;
+        }
+
+        void recordDelivered(int count) {
+            records.add(count);
+        }
+
+        private String status() {
+            String state = healthCheckFailed ? "DOWN" : breaker.getState().name();
+            return state + ", " + records.sum() + " records";
+        }
+    }
+
+    /**
+     * Nodes and ring points for one value of the setting
+     */
+    private record Ring(String source, List<Node> nodes, long[] points, Node[] owners) {
+    }
+
+    // Ring points per node: enough for an even spread over a handful of nodes
+    private static final int VIRTUAL_NODES = 160;
+
+    private static final long HEALTH_CHECK_INTERVAL_MS = 10_000;
+    private static final Duration HEALTH_CHECK_TIMEOUT = Duration.ofSeconds(5);
+
+    private final MontoyaApi api;
+    private final Settings settings;
+    private final Transport transport;
+    private final ScheduledExecutorService healthChecker;
+    private volatile Ring ring = new Ring(null, List.of(), new long[0], new Node[0]);
+
+    public IngestRing(MontoyaApi api, Settings settings, Transport transport, Metrics metrics) {
+        this.api = api;
+        this.settings = settings;
+        this.transport = transport;
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("deepbounty-ingest-health").daemon(true).factory());
+        healthChecker.scheduleWithFixedDelay(this::checkHealth, HEALTH_CHECK_INTERVAL_MS, HEALTH_CHECK_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+
+        metrics.gauge("ingest.nodes", this::nodeStatuses);
+    }
+
+    /**
+     * Node for the given target host: its owner on the ring, or the next healthy node
+     * clockwise when the owner is unhealthy (the owner itself when none is healthy)
+     */
+    public Node nodeFor(String host) {
+        return nodeFor(current(), host);
+    }
+
+    /**
+     * Split records by destination node, keeping their order within each node
+     *
+     * @param hostOf extracts the target host of a record
+     */
+    public <T> Map<Node, List<T>> partition(List<T> records, Function<T, String> hostOf) {
+        Ring current = current();
+        if (current.nodes().size() == 1) {
+            return Map.of(current.nodes().get(0), records);
+        }
+        Map<String, Node> byHost = new HashMap<>();
+        Map<Node, List<T>> groups = new LinkedHashMap<>();
+        for (T record : records) {
+            String host = hostOf.apply(record);
+            Node node = byHost.computeIfAbsent(host == null ? "" : host, h -> nodeFor(current, h));
+            groups.computeIfAbsent(node, n -> new ArrayList<>()).add(record);
+        }
+        return groups;
+    }
+
+    private static Node nodeFor(Ring ring, String host) {
+        if (ring.nodes().size() == 1) {
+            return ring.nodes().get(0);
+        }
+        long hash = hash(host == null ? "" : host);
+        int index = Arrays.binarySearch(ring.points(), hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        Node[] owners = ring.owners();
+        for (int i = 0; i < owners.length; i++) {
+            Node node = owners[(index + i) % owners.length];
+            if (node.isHealthy()) {
+                return node;
+            }
+        }
+        return owners[index % owners.length];
+    }
+
+    /**
+     * Milliseconds until some node accepts traffic again (0 if one does now)
+     */
+    public long remainingOpenMillis() {
+        long remaining = Long.MAX_VALUE;
+        for (Node node : current().nodes()) {
+            if (node.isHealthy()) {
+                return 0;
+            }
+            remaining = Math.min(remaining, node.breaker().remainingOpenMillis());
+        }
+        return remaining == Long.MAX_VALUE ? 0 : remaining;
+    }
+
+    /**
+     * Current nodes, in configuration order
+     */
+    public List<Node> nodes() {
+        return current().nodes();
+    }
+
+    public void shutdown() {
+        healthChecker.shutdownNow();
+    }
+
+    /**
+     * The ring for the current setting values, rebuilt when they changed
+     */
+    private Ring current() {
+        Ring current = ring;
+        String endpoints = settings.getIngestEndpoints();
+        String source = (endpoints == null ? "" : endpoints) + "\n" + settings.getServerUrl();
+        if (source.equals(current.source())) {
+            return current;
+        }
+        synchronized (this) {
+            if (!source.equals(ring.source())) {
+                ring = build(source, parseEndpoints(endpoints, settings.getServerUrl()), ring);
+            }
+            return ring;
+        }
+    }
+
+    /**
+     * Node URLs from the comma-separated setting, falling back to the server URL
+     */
+    private static List<String> parseEndpoints(String endpoints, String serverUrl) {
+        Set<String> urls = new LinkedHashSet<>();
+        if (endpoints != null) {
+            for (String endpoint : endpoints.split(",")) {
+                String url = stripTrailingSlash(endpoint.trim());
+                if (!url.isEmpty()) {
+                    urls.add(url);
+                }
+            }
+        }
+        if (urls.isEmpty()) {
+            urls.add(stripTrailingSlash(serverUrl == null ? "" : serverUrl.trim()));
+        }
+        return List.copyOf(urls);
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private Ring build(String source, List<String> urls, Ring previous) {
+        Map<String, Node> existing = new HashMap<>();
+        for (Node node : previous.nodes()) {
+            existing.put(node.url(), node);
+        }
+
+        List<Node> nodes = new ArrayList<>();
+        for (String url : urls) {
+            Node node = existing.get(url);
+            if (node == null) {
+                String name = urls.size() == 1 ? "Ingest" : "Ingest " + url;
+                node = new Node(url, new CircuitBreaker(api, name, settings));
+            }
+            nodes.add(node);
+        }
+
+        // Sorted ring points, each owned by the node whose URL hashed to it first
+        Map<Long, Node> pointOwners = new HashMap<>();
+        for (Node node : nodes) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                pointOwners.putIfAbsent(hash(node.url() + "#" + i), node);
+            }
+        }
+        long[] points = pointOwners.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        Node[] owners = new Node[points.length];
+        for (int i = 0; i < points.length; i++) {
+            owners[i] = pointOwners.get(points[i]);
+        }
+
+        if (nodes.size() > 1) {
+            safeLogToOutput("Sharding ingest traffic over " + urls);
+        }
+        return new Ring(source, List.copyOf(nodes), points, owners);
+    }
+
+    /**
+     * Probe every node when there are several, so a failed node stops receiving traffic
+     * before its breaker trips and gets it back once it answers again. Any HTTP answer
+     * below 500 counts as alive, whether or not the node implements /health.
+     */
+    private void checkHealth() {
+        List<Node> nodes = current().nodes();
+        if (nodes.size() < 2) {
+            return;
+        }
+        for (Node node : nodes) {
+            boolean failed;
+            try {
+                HttpRequest request = transport.newRequest(node.url() + "/health")
+                        .timeout(HEALTH_CHECK_TIMEOUT)
+                        .GET()
+                        .build();
+                failed = transport.sendControl(request, HttpResponse.BodyHandlers.discarding()).statusCode() >= 500;
+            } catch (IOException e) {
+                failed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failed = true;
+            }
+            if (failed != node.healthCheckFailed) {
+                node.healthCheckFailed = failed;
+                if (failed) {
+                    safeLogToError("Ingest node " + node.url() + " failed its health check, routing its hosts elsewhere");
+                } else {
+                    safeLogToOutput("Ingest node " + node.url() + " is healthy again");
+                }
+            }
+        }
+    }
+
+    private Map<String, Object> nodeStatuses() {
+        Map<String, Object> statuses = new LinkedHashMap<>();
+        for (Node node : current().nodes()) {
+            statuses.put(node.url(), node.status());
+        }
+        return statuses;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer so that
+     * similar host names spread over the whole ring
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Safely log to output, checking if API is available
+     */
+    private void safeLogToOutput(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToOutput(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+
+    /**
+     * Safely log to error, checking if API is available
+     */
+    private void safeLogToError(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToError(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+}
@@ -0,0 +1,351 @@
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import json.JSONBody;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends bodies above the inline limit without ever holding them whole.
+ * <p>
+ * Such a body is read from Burp in {@value #SLICE_SIZE}-byte slices: once to hash it, then,
+ * in upload mode, to PUT it slice by slice to {@code /ingest/upload/{recordId}/{field}}
+ * with a {@code Content-Range} header, on the node its host is routed to. The record then
+ * carries the hash, the original length and the record ID instead of the body, and the
+ * server files the body under its hash once complete, as for inline ones. When the
+ * upload fails, the server has no upload endpoint, or truncation is selected, the record
+ * carries the first bytes of the body instead, with the same hash and length. A body the
+ * server already acknowledged is sent as a hash reference, like small ones.
+ * <p>
+ * Either way, a record never holds more than the inline limit per body, and an upload
+ * never more than one slice at a time.
+ * <p>
+ * A body is uploaded before its record is queued, so the record may still be dropped
+ * afterwards (queue overflow, or rejected by the server). The upload is then aborted,
+ * best effort, with {@code DELETE /ingest/upload/{recordId}}. Records lost without
+ * notice (a spool segment evicted, an abort that fails or finds the workers busy) still
+ * leave uploads no record refers to: the server is expected to discard an upload whose
+ * record has not arrived within a grace period of its own choosing.
+ */
+public class LargeBodies {
+
+    /**
+     * What to do with bodies above the inline limit
+     */
+    public enum Mode {
+        UPLOAD("Upload In Chunks"),
+        TRUNCATE("Truncate");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        /**
+         * Resolve a mode from its settings label, defaulting to upload
+         */
+        public static Mode fromLabel(String label) {
+            for (Mode mode : values()) {
+                if (mode.label.equals(label)) {
+                    return mode;
+                }
+            }
+            return UPLOAD;
+        }
+    }
+
+    /**
+     * A body as it goes into a record
+     *
+     * @param bytes    the inline bytes (a prefix when truncated, kept but not sent when omitted), or null
+     * @param hash     SHA-256 of the whole body, or null for small bodies that are not deduplicated
+     * @param omitted  whether the server already has the body and only the hash is sent
+     * @param transfer {@link TrafficSerializer#TRANSFER_TRUNCATED}, {@link TrafficSerializer#TRANSFER_UPLOADED},
+     *                 or null when the body is inline
+     * @param length   original length when not inline, 0 otherwise
+     */
+    public record Body(byte[] bytes, String hash, boolean omitted, String transfer, int length) {
+
+        public boolean isUploaded() {
+            return TrafficSerializer.TRANSFER_UPLOADED.equals(transfer);
+        }
+    }
+
+    // Bytes read from Burp and sent per upload request
+    static final int SLICE_SIZE = 1024 * 1024;
+
+    private static final int UPLOAD_WORKERS = 2;
+    private static final int UPLOAD_BACKLOG = 16;
+
+    // Status codes meaning the server has no upload endpoint
+    private static final Set<Integer> UPLOAD_UNSUPPORTED_STATUSES = Set.of(404, 405, 501);
+    private static final long UPLOAD_REPROBE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private static final long RETRY_BASE_BACKOFF_MS = 500;
+    private static final long RETRY_MAX_BACKOFF_MS = 30_000;
+
+    private final MontoyaApi api;
+    private final Settings settings;
+    private final Transport transport;
+    private final IngestRing ring;
+    private final BodyDeduplicator deduplicator;
+    private final ThreadPoolExecutor uploadWorkers;
+    private volatile long uploadUnsupportedSinceNanos = -1;
+
+    private final LongAdder uploadedBodies = new LongAdder();
+    private final LongAdder uploadedBytes = new LongAdder();
+    private final LongAdder truncatedBodies = new LongAdder();
+    private final LongAdder failedUploads = new LongAdder();
+    private final LongAdder abortedUploads = new LongAdder();
+
+    public LargeBodies(MontoyaApi api, Settings settings, Transport transport, IngestRing ring,
+                       BodyDeduplicator deduplicator, Metrics metrics) {
+        this.api = api;
+        this.settings = settings;
+        this.transport = transport;
+        this.ring = ring;
+        this.deduplicator = deduplicator;
+        this.uploadWorkers = new ThreadPoolExecutor(UPLOAD_WORKERS, UPLOAD_WORKERS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(UPLOAD_BACKLOG),
+                Thread.ofPlatform().name("deepbounty-body-upload-", 0).daemon(true).factory());
+
+        metrics.gauge("largeBodies.uploaded", uploadedBodies::sum);
+        metrics.gauge("largeBodies.uploadedBytes", uploadedBytes::sum);
+        metrics.gauge("largeBodies.truncated", truncatedBodies::sum);
+        metrics.gauge("largeBodies.failedUploads", failedUploads::sum);
+        metrics.gauge("largeBodies.abortedUploads", abortedUploads::sum);
+        metrics.gauge("largeBodies.uploadBacklog", () -> uploadWorkers.getQueue().size());
+    }
+
+    /**
+     * Whether a body is small enough to go inline in its record
+     */
+    public boolean isInline(ByteArray body) {
+        return body.length() <= settings.getInlineBodyLimitBytes();
+    }
+
+    /**
+     * Whether large bodies are currently uploaded rather than truncated
+     */
+    public boolean isUploadEnabled() {
+        if (settings.getLargeBodyMode() != Mode.UPLOAD) {
+            return false;
+        }
+        long unsupportedSince = uploadUnsupportedSinceNanos;
+        if (unsupportedSince < 0) {
+            return true;
+        }
+        // Probe again from time to time in case the server was upgraded
+        if (System.nanoTime() - unsupportedSince >= UPLOAD_REPROBE_INTERVAL_NANOS) {
+            uploadUnsupportedSinceNanos = -1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Run a capture that uploads bodies on an upload worker, so capture workers never wait on it
+     *
+     * @return false if the upload backlog is full and the caller should truncate instead
+     */
+    public boolean execute(Runnable task) {
+        try {
+            uploadWorkers.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Prepare a body above the inline limit for its record
+     *
+     * @param host     target host of the record, which decides the upload node
+     * @param recordId ID to upload the body under, or null to truncate it
+     * @param field    {@code requestBody} or {@code responseBody}
+     */
+    public Body prepare(ByteArray body, String host, String recordId, String field) {
+        int length = body.length();
+        String hash = deduplicator.hash(body, SLICE_SIZE);
+        if (settings.isBodyDeduplicationEnabled() && deduplicator.isAcknowledged(ring.nodeFor(host).url(), hash)) {
+            return new Body(null, hash, true, null, 0);
+        }
+        if (recordId != null && upload(host, recordId, field, body)) {
+            uploadedBodies.increment();
+            uploadedBytes.add(length);
+            return new Body(null, hash, false, TrafficSerializer.TRANSFER_UPLOADED, length);
+        }
+
+        truncatedBodies.increment();
+        int kept = Math.min(length, settings.getTruncatedBodySizeBytes());
+        byte[] prefix = kept == 0 ? new byte[0] : body.subArray(0, kept).getBytes();
+        return new Body(prefix, hash, false, TrafficSerializer.TRANSFER_TRUNCATED, length);
+    }
+
+    /**
+     * Ask the server to discard the bodies uploaded for a record that will not be delivered
+     */
+    public void abort(JSONBody.Traffic traffic) {
+        String recordId = traffic.recordId();
+        if (recordId == null) {
+            return;
+        }
+        IngestRing.Node node = ring.nodeFor(Scope.hostOf(traffic.url()));
+        execute(() -> {
+            try {
+                HttpRequest request = transport.newRequest(node.url() + "/ingest/upload/" + recordId)
+                        .DELETE()
+                        .build();
+                transport.send(request, HttpResponse.BodyHandlers.discarding());
+                abortedUploads.increment();
+            } catch (IOException | RuntimeException e) {
+                // Left to the server's own clean-up
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    public void shutdown() {
+        uploadWorkers.shutdown();
+        try {
+            uploadWorkers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Upload a body slice by slice to the node the host is routed to
+     *
+     * @return true if every slice was accepted
+     */
+    private boolean upload(String host, String recordId, String field, ByteArray body) {
+        // Not configured (or being edited): truncate rather than send requests bound to fail
+        String serverUrl = settings.getServerUrl();
+        String apiKey = settings.getBurpsuiteKey();
+        if (serverUrl == null || serverUrl.isEmpty() || apiKey == null || apiKey.isEmpty()) {
+            return false;
+        }
+        IngestRing.Node node = ring.nodeFor(host);
+        if (!node.isHealthy()) {
+            return false;
+        }
+        String url = node.url() + "/ingest/upload/" + recordId + "/" + field;
+        int length = body.length();
+        for (int start = 0; start < length; start += SLICE_SIZE) {
+            int end = Math.min(length, start + SLICE_SIZE);
+            if (!uploadSlice(node, url, body.subArray(start, end).getBytes(), start, length)) {
+                failedUploads.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * PUT one slice, retrying transient failures with jittered exponential back-off
+     */
+    private boolean uploadSlice(IngestRing.Node node, String url, byte[] slice, int start, int total) {
+        CircuitBreaker breaker = node.breaker();
+        int maxAttempts = settings.getMaxRetryAttempts();
+        for (int attempt = 0; ; attempt++) {
+            if (!breaker.allowRequest()) {
+                return false;
+            }
+            int status;
+            try {
+                HttpRequest request = transport.newRequest(url)
+                        .header("Content-Type", "application/octet-stream")
+                        .header("Content-Range", "bytes " + start + "-" + (start + slice.length - 1) + "/" + total)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(slice))
+                        .build();
+                status = transport.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (IOException e) {
+                status = -1;
+            } catch (InterruptedException e) {
+                // Settle the request, which may be the half-open probe, as the ingest path does
+                breaker.recordFailure();
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (RuntimeException e) {
+                // e.g. a malformed server URL: settle the request the same way and truncate the body
+                breaker.recordFailure();
+                safeLogToError("Error creating upload request: " + e.getMessage());
+                return false;
+            }
+
+            if (status >= 200 && status < 300) {
+                breaker.recordSuccess();
+                return true;
+            }
+            if (UPLOAD_UNSUPPORTED_STATUSES.contains(status)) {
+                breaker.recordSuccess();
+                if (uploadUnsupportedSinceNanos < 0) {
+                    safeLogToOutput("Server does not accept body uploads, truncating large bodies");
+                }
+                uploadUnsupportedSinceNanos = System.nanoTime();
+                return false;
+            }
+            if (status == 401 || status == 403) {
+                // A refused key fails ingest too: count it against the node, as the ingest path does
+                breaker.recordFailure();
+                return false;
+            }
+            if (status != -1 && status != 429 && status < 500) {
+                breaker.recordSuccess();
+                safeLogToError("Server rejected a body upload. Status: " + status);
+                return false;
+            }
+
+            breaker.recordFailure();
+            if (attempt + 1 >= maxAttempts || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            try {
+                Thread.sleep(Backoff.delayMillis(attempt, RETRY_BASE_BACKOFF_MS, RETRY_MAX_BACKOFF_MS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Safely log to output, checking if API is available
+     */
+    private void safeLogToOutput(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToOutput(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+
+    /**
+     * Safely log to error, checking if API is available
+     */
+    private void safeLogToError(String message) {
+        try {
+            if (api != null && api.logging() != null) {
+                api.logging().logToError(message);
+            }
+        } catch (Exception ignored) {
+            // Silently ignore if logging fails
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Pipeline instrumentation: counters and latency histograms updated on the hot path,
+ * plus gauges read from the components when a snapshot is taken.
+ * <p>
+ * Counters are {@link LongAdder}s and histograms are {@link LatencyHistogram}s, so
+ * recording never takes a lock. Snapshots are plain maps, shown in the DeepBounty tab
+ * and exported as JSON.
+ */
+public class Metrics {
+
+    /**
+     * Events counted along the capture pipeline
+     */
+    public enum Counter {
+        RESPONSES_SEEN,
+        OUT_OF_SCOPE,
+        FILTERED_BY_RULES,
+        RATE_LIMITED,
+        HANDED_TO_WORKERS,
+        FILTERED_BY_MIME,
+        QUEUED,
+        REJECTED_BY_QUEUE
+    }
+
+    /**
+     * Timed operations
+     */
+    public enum Timer {
+        HANDLER,
+        SCOPE_CHECK,
+        SERIALIZATION,
+        INGEST_ROUND_TRIP,
+        SCOPE_SYNC
+    }
+
+    private static final DateTimeFormatter EXPORT_FILE_TIME =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault());
+
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final LatencyHistogram[] timers = new LatencyHistogram[Timer.values().length];
+    private final Map<String, Supplier<Object>> gauges = new LinkedHashMap<>();
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create();
+
+    public Metrics() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new LatencyHistogram();
+        }
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()].increment();
+    }
+
+    public long get(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * Record the duration of an operation
+     */
+    public void record(Timer timer, long nanos) {
+        timers[timer.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram histogram(Timer timer) {
+        return timers[timer.ordinal()];
+    }
+
+    /**
+     * Register a value read from a component at snapshot time.
+     * Names are dotted paths ("queue.depth"); the supplier must be thread-safe.
+     */
+    public void gauge(String name, Supplier<Object> supplier) {
+        synchronized (gauges) {
+            gauges.put(name, supplier);
+        }
+    }
+
+    /**
+     * Current values of every counter, timer and gauge
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("timestamp", Instant.now().toString());
+
+        Map<String, Object> counterValues = new LinkedHashMap<>();
+        for (Counter counter : Counter.values()) {
+            counterValues.put(key(counter), get(counter));
+        }
+        snapshot.put("counters", counterValues);
+
+        Map<String, Object> timerValues = new LinkedHashMap<>();
+        for (Timer timer : Timer.values()) {
+            LatencyHistogram histogram = histogram(timer);
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("count", histogram.count());
+            values.put("meanMicros", round(histogram.meanMicros()));
+            values.put("p50Micros", round(histogram.percentileMicros(50)));
+            values.put("p90Micros", round(histogram.percentileMicros(90)));
+            values.put("p99Micros", round(histogram.percentileMicros(99)));
+            values.put("p999Micros", round(histogram.percentileMicros(99.9)));
+            values.put("maxMicros", histogram.maxMicros());
+            timerValues.put(key(timer), values);
+        }
+        snapshot.put("latencies", timerValues);
+
+        Map<String, Object> gaugeValues = new LinkedHashMap<>();
+        Map<String, Supplier<Object>> registered;
+        synchronized (gauges) {
+            registered = new LinkedHashMap<>(gauges);
+        }
+        for (Map.Entry<String, Supplier<Object>> gauge : registered.entrySet()) {
+            Object value;
+            try {
+                value = gauge.getValue().get();
+            } catch (RuntimeException e) {
+                value = "error: " + e.getMessage();
+            }
+            gaugeValues.put(gauge.getKey(), value);
+        }
+        snapshot.put("gauges", gaugeValues);
+        return snapshot;
+    }
+
+    /**
+     * Snapshot as pretty-printed JSON
+     */
+    public String toJson() {
+        return gson.toJson(snapshot());
+    }
+
+    /**
+     * Write a JSON snapshot to a new timestamped file in the given directory
+     *
+     * @return the file written
+     */
+    public Path export(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve("metrics-" + EXPORT_FILE_TIME.format(Instant.now()) + ".json");
+        Files.writeString(file, toJson(), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * camelCase name of an enum constant (HANDED_TO_WORKERS -> handedToWorkers)
+     */
+    private static String key(Enum<?> constant) {
+        String[] words = constant.name().toLowerCase(Locale.ROOT).split("_");
+        StringBuilder key = new StringBuilder(words[0]);
+        for (int i = 1; i < words.length; i++) {
+            key.append(Character.toUpperCase(words[i].charAt(0))).append(words[i], 1, words[i].length());
+        }
+        return key.toString();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+}
@@ -0,0 +1,128 @@
+import burp.api.montoya.MontoyaApi;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Burp suite tab showing a live view of the extension metrics, with a button to
+ * export the current snapshot as JSON.
+ * <p>
+ * The components are built and only touched on the Swing thread, while snapshots are
+ * taken off it (some gauges take locks) and only while the tab is visible.
+ */
+public class MetricsTab {
+
+    private static final int REFRESH_INTERVAL_MS = 1000;
+
+    private final MontoyaApi api;
+    private final Metrics metrics;
+    private final Settings settings;
+
+    // Swing components, created on the Swing thread by register()
+    private JPanel panel;
+    private DefaultTableModel model;
+    private JLabel status;
+    private Timer refreshTimer;
+    private volatile boolean refreshing;
+
+    public MetricsTab(MontoyaApi api, Metrics metrics, Settings settings) {
+        this.api = api;
+        this.metrics = metrics;
+        this.settings = settings;
+    }
+
+    /**
+     * Register the tab in Burp and start refreshing it
+     */
+    public void register() {
+        SwingUtilities.invokeLater(() -> {
+            buildUi();
+            api.userInterface().applyThemeToComponent(panel);
+            api.userInterface().registerSuiteTab("DeepBounty", panel);
+            refreshTimer.start();
+        });
+    }
+
+    /**
+     * Stop refreshing (on extension unload)
+     */
+    public void stop() {
+        SwingUtilities.invokeLater(() -> {
+            if (refreshTimer != null) {
+                refreshTimer.stop();
+            }
+        });
+    }
+
+    private void buildUi() {
+        panel = new JPanel(new BorderLayout());
+        model = new DefaultTableModel(new Object[]{"Metric", "Value"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        status = new JLabel(" ");
+
+        JButton exportButton = new JButton("Export JSON snapshot");
+        exportButton.addActionListener(event -> export());
+        JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        toolbar.add(exportButton);
+        toolbar.add(status);
+
+        JTable table = new JTable(model);
+        table.setFillsViewportHeight(true);
+        panel.add(toolbar, BorderLayout.NORTH);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        refreshTimer = new Timer(REFRESH_INTERVAL_MS, event -> refresh());
+    }
+
+    private void refresh() {
+        if (!panel.isShowing() || refreshing) {
+            return;
+        }
+        refreshing = true;
+        CompletableFuture.supplyAsync(metrics::snapshot).whenComplete((snapshot, error) -> {
+            refreshing = false;
+            if (snapshot != null) {
+                SwingUtilities.invokeLater(() -> show(snapshot));
+            }
+        });
+    }
+
+    private void show(Map<String, Object> snapshot) {
+        model.setRowCount(0);
+        addRows("", snapshot);
+    }
+
+    /**
+     * Flatten nested maps into "a.b.c" rows
+     */
+    @SuppressWarnings("unchecked")
+    private void addRows(String prefix, Map<String, Object> values) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String name = prefix.isEmpty() ? entry.getKey() : prefix + "." + entry.getKey();
+            if (entry.getValue() instanceof Map<?, ?> nested) {
+                addRows(name, (Map<String, Object>) nested);
+            } else {
+                model.addRow(new Object[]{name, String.valueOf(entry.getValue())});
+            }
+        }
+    }
+
+    private void export() {
+        Path directory = settings.getDataDirectory().resolve("metrics");
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return "Exported to " + metrics.export(directory);
+            } catch (Exception e) {
+                return "Export failed: " + e.getMessage();
+            }
+        }).thenAccept(message -> SwingUtilities.invokeLater(() -> status.setText(message)));
+    }
+}
@@ -0,0 +1,153 @@
+import burp.api.montoya.core.ToolType;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token-bucket rate limits applied on Burp's thread before a response is captured.
+ * <p>
+ * Each Burp tool can have its own limit (the "Tool Rate Limits" setting, e.g.
+ * {@code INTRUDER=100, SCANNER=100}), and every host shares the "Per-Host Rate Limit".
+ * Buckets hold one second worth of tokens, so short bursts are allowed. Tools and
+ * hosts without a limit are never throttled.
+ */
+public class RateLimiter {
+
+    /**
+     * Classic token bucket refilled continuously at a fixed rate
+     */
+    static final class TokenBucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TokenBucket(int perSecond) {
+            this.ratePerNano = perSecond / (double) TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, perSecond);
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * ratePerNano);
+            lastRefillNanos = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private record ToolLimits(String source, Map<ToolType, TokenBucket> buckets) {
+    }
+
+    private record HostLimits(int perSecond, ConcurrentHashMap<String, TokenBucket> buckets) {
+    }
+
+    // Host buckets kept before the map is reset
+    private static final int MAX_HOST_BUCKETS = 10_000;
+
+    private final Settings settings;
+    private volatile ToolLimits toolLimits = new ToolLimits("", Map.of());
+    private volatile HostLimits hostLimits = new HostLimits(0, new ConcurrentHashMap<>());
+
+    private final LongAdder throttledByTool = new LongAdder();
+    private final LongAdder throttledByHost = new LongAdder();
+
+    public RateLimiter(Settings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Take a token for this tool and host
+     *
+     * @return false if either limit is exhausted and the response should not be captured
+     */
+    public boolean tryAcquire(ToolType tool, String host) {
+        TokenBucket toolBucket = currentToolLimits().buckets().get(tool);
+        if (toolBucket != null && !toolBucket.tryAcquire()) {
+            throttledByTool.increment();
+            return false;
+        }
+
+        HostLimits limits = currentHostLimits();
+        if (limits.perSecond() > 0 && host != null) {
+            ConcurrentHashMap<String, TokenBucket> buckets = limits.buckets();
+            if (buckets.size() >= MAX_HOST_BUCKETS) {
+                buckets.clear();
+            }
+            if (!buckets.computeIfAbsent(host, key -> new TokenBucket(limits.perSecond())).tryAcquire()) {
+                throttledByHost.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of responses skipped because of a tool limit
+     */
+    public long getThrottledByTool() {
+        return throttledByTool.sum();
+    }
+
+    /**
+     * Number of responses skipped because of the per-host limit
+     */
+    public long getThrottledByHost() {
+        return throttledByHost.sum();
+    }
+
+    private ToolLimits currentToolLimits() {
+        ToolLimits current = toolLimits;
+        String source = settings.getToolRateLimits();
+        if (source == null) {
+            source = "";
+        }
+        if (!source.equals(current.source())) {
+            current = new ToolLimits(source, parseToolLimits(source));
+            toolLimits = current;
+        }
+        return current;
+    }
+
+    private HostLimits currentHostLimits() {
+        HostLimits current = hostLimits;
+        int perSecond = settings.getPerHostRateLimit();
+        if (perSecond != current.perSecond()) {
+            current = new HostLimits(perSecond, new ConcurrentHashMap<>());
+            hostLimits = current;
+        }
+        return current;
+    }
+
+    /**
+     * Parse "TOOL=limit" pairs separated by commas; invalid pairs are ignored
+     */
+    private static Map<ToolType, TokenBucket> parseToolLimits(String source) {
+        Map<ToolType, TokenBucket> buckets = new EnumMap<>(ToolType.class);
+        for (String pair : source.split(",")) {
+            int equals = pair.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            try {
+                ToolType tool = ToolType.valueOf(pair.substring(0, equals).trim().toUpperCase(Locale.ROOT));
+                int perSecond = Integer.parseInt(pair.substring(equals + 1).trim());
+                if (perSecond > 0) {
+                    buckets.put(tool, new TokenBucket(perSecond));
+                }
+            } catch (IllegalArgumentException ignored) {
+                // Unknown tool or invalid number
+            }
+        }
+        return buckets;
+    }
+}
@@ -4,10 +4,10 @@ import com.google.gson.JsonSyntaxException;
 import json.JSONBody;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -19,89 +19,249 @@ import java.util.concurrent.TimeUnit;
  */
 public class Scope {
 
+    /**
+     * Notified on the sync thread after a new scope version is applied
+     */
+    public interface ScopeChangeListener {
+        void scopeChanged(ScopeMatcher previous, ScopeMatcher current, int version);
+    }
+
     private final MontoyaApi api;
     private final Settings settings;
-    private final HttpClient httpClient;
+    private final Transport transport;
+    private final Metrics metrics;
     private final ScheduledExecutorService scheduler;
     private final Gson gson;
-    private volatile Set<String> currentScopeSubdomains = Collections.emptySet();
-    private volatile Set<String> exactScopes = Collections.emptySet();
-    private volatile List<String> wildcardSuffixes = Collections.emptyList();
-    private int currentScopeVersion = -1;
+    private volatile ScopeMatcher matcher = ScopeMatcher.EMPTY;
+    private volatile int currentScopeVersion = -1;
+    private final HostDecisionCache decisionCache = new HostDecisionCache(DECISION_CACHE_MAX_ENTRIES);
+
+    // Conditional request validators from the last successful responses
+    private volatile String versionEtag;
+    private volatile String scopeEtag;
+    private volatile boolean deltaSupported = true;
+    private volatile ScopeChangeListener changeListener;
+
+    // Guards the server while it is failing; failures are counted for the retry back-off
+    private final CircuitBreaker breaker;
+    private int consecutiveFailures;
+
+    // Outcome of the last scope download
+    private volatile long lastSyncDurationMs = -1;
+    private volatile long lastSyncEpochMs = -1;
+
+    // Number of hosts whose scope decision is kept in memory
+    private static final int DECISION_CACHE_MAX_ENTRIES = 8192;
 
-    public Scope(MontoyaApi api, Settings settings) {
+    // How long the server may hold a version check open, and the fallback polling interval
+    private static final long LONG_POLL_WAIT_MS = 25_000;
+    private static final long POLL_INTERVAL_MS = 10_000;
+
+    // Retry back-off after a failed check
+    private static final long RETRY_BASE_BACKOFF_MS = 1000;
+    private static final long RETRY_MAX_BACKOFF_MS = 60_000;
+
+    private static final String SNAPSHOT_FILE = "scope.snapshot";
+
+    public Scope(MontoyaApi api, Settings settings, Transport transport, Metrics metrics) {
         this.api = api;
         this.settings = settings;
-        this.httpClient = HttpClient.newBuilder()
-                .version(HttpClient.Version.HTTP_1_1)
-                .build();
-        this.scheduler = Executors.newScheduledThreadPool(1);
+        this.transport = transport;
+        this.metrics = metrics;
+        this.scheduler = Executors.newScheduledThreadPool(1,
+                Thread.ofPlatform().name("deepbounty-scope-sync").daemon(true).factory());
         this.gson = new Gson();
+        this.breaker = new CircuitBreaker(api, "Scope sync", settings);
+
+        metrics.gauge("scope.version", () -> currentScopeVersion);
+        metrics.gauge("scope.entries", () -> matcher.size());
+        metrics.gauge("scope.cachedHostDecisions", decisionCache::size);
+        metrics.gauge("scope.deltaSupported", () -> deltaSupported);
+        metrics.gauge("scope.lastSyncDurationMs", () -> lastSyncDurationMs);
+        metrics.gauge("scope.lastSyncAt", () -> lastSyncEpochMs < 0 ? "never" : Instant.ofEpochMilli(lastSyncEpochMs).toString());
+        metrics.gauge("scope.circuit", () -> breaker.getState().name());
+        metrics.gauge("scope.circuitOpened", breaker::getOpenedCount);
     }
 
     /**
-     * Start periodic scope version checking (every 10 seconds)
+     * Set the listener notified when a scope update from the server is applied
      */
-    public void startScopeVersionCheck() {
-        scheduler.scheduleAtFixedRate(() -> {
-            try {
-                checkAndUpdateScope();
-            } catch (Exception e) {
-                safeLogToError("Error checking scope version: " + e.getMessage());
+    public void setScopeChangeListener(ScopeChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    /**
+     * Load the scope saved by a previous session, so traffic is filtered correctly
+     * before the first sync with the server completes
+     */
+    public void loadSnapshot() {
+        Path file = snapshotFile();
+        try {
+            ScopeSnapshot.Snapshot snapshot = ScopeSnapshot.read(file);
+            if (snapshot == null) {
+                return;
             }
-        }, 0, 10, TimeUnit.SECONDS);
+            if (!snapshot.serverUrl().equals(settings.getServerUrl())) {
+                safeLogToOutput("Ignoring scope snapshot saved for another server");
+                return;
+            }
+
+            // Update the matcher before the version (see updateBurpScope)
+            matcher = ScopeMatcher.compile(snapshot.entries());
+            currentScopeVersion = snapshot.version();
+            safeLogToOutput("Scope snapshot loaded! Version: " + currentScopeVersion + ", Subdomains: " + matcher.size());
+        } catch (IOException e) {
+            safeLogToError("Failed to load scope snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Save the current scope for the next session
+     */
+    private void saveSnapshot(String serverUrl) {
+        try {
+            ScopeSnapshot.write(snapshotFile(), serverUrl, currentScopeVersion, matcher.entries());
+        } catch (IOException e) {
+            safeLogToError("Failed to save scope snapshot: " + e.getMessage());
+        }
+    }
 
-        safeLogToOutput("Scope version check started - checking every 10 seconds");
+    private Path snapshotFile() {
+        return settings.getDataDirectory().resolve(SNAPSHOT_FILE);
+    }
+
+    /**
+     * Start scope synchronization.
+     * Each check long-polls the server for a version change; servers that answer
+     * immediately are polled every 10 seconds instead.
+     */
+    public void startScopeVersionCheck() {
+        scheduler.execute(this::syncLoop);
+
+        safeLogToOutput("Scope synchronization started");
+    }
+
+    /**
+     * Stop scope synchronization
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Run one scope check and schedule the next one
+     */
+    private void syncLoop() {
+        long nextDelayMs = POLL_INTERVAL_MS;
+        try {
+            nextDelayMs = checkAndUpdateScope();
+        } catch (Exception e) {
+            safeLogToError("Error checking scope version: " + e.getMessage());
+        }
+
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::syncLoop, nextDelayMs, TimeUnit.MILLISECONDS);
+        }
     }
 
     /**
      * Check if the remote scope version is newer and update if needed
+     *
+     * @return the delay before the next check, in milliseconds
      */
-    private void checkAndUpdateScope() {
+    private long checkAndUpdateScope() {
         String serverUrl = settings.getServerUrl();
         String burpsuiteKey = settings.getBurpsuiteKey();
 
         // Verify configuration
         if (serverUrl.isEmpty()) {
             safeLogToError("Server URL is not configured. Please configure it in settings.");
-            return;
+            return POLL_INTERVAL_MS;
         }
         if (burpsuiteKey.isEmpty()) {
             safeLogToError("Burpsuite key is not configured. Please configure it in settings.");
-            return;
+            return POLL_INTERVAL_MS;
         }
 
-        try {
-            // Check version from server
-            int remoteVersion = getRemoteScopeVersion(serverUrl, burpsuiteKey);
+        // Leave the server alone while the circuit is open
+        if (!breaker.allowRequest()) {
+            return Math.max(breaker.remainingOpenMillis(), RETRY_BASE_BACKOFF_MS);
+        }
 
-            // If remote version is newer, fetch and update scope
-            if (remoteVersion > currentScopeVersion) {
+        try {
+            // Check version from server (long-poll when supported)
+            long start = System.nanoTime();
+            int remoteVersion = getRemoteScopeVersion(serverUrl);
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // If the remote version differs, fetch and update scope. It can also be lower than
+            // ours (server database reset or restored), e.g. against a snapshot from before that
+            if (remoteVersion != currentScopeVersion) {
                 safeLogToOutput("Scope version mismatch detected. Remote: " + remoteVersion + ", Local: " + currentScopeVersion);
 
                 // Fetch and apply new scope
-                fetchAndUpdateScope(serverUrl, burpsuiteKey);
+                fetchAndUpdateScope(serverUrl, remoteVersion);
+                recordSuccess();
+                return 0;
             }
-        } catch (IOException | InterruptedException e) {
-            safeLogToError("Error during scope check: " + e.getMessage());
+
+            recordSuccess();
+            // The server held the request open: it supports long-polling, so ask again right away
+            return elapsedMs >= LONG_POLL_WAIT_MS / 2 ? 0 : POLL_INTERVAL_MS;
+        } catch (IOException | IllegalArgumentException e) {
+            // Only the first failure of a streak is logged (a malformed server URL counts too);
+            // the breaker reports the rest
+            if (consecutiveFailures == 0) {
+                safeLogToError("Error during scope check: " + e.getMessage());
+            }
+            breaker.recordFailure();
+            return Backoff.delayMillis(consecutiveFailures++, RETRY_BASE_BACKOFF_MS, RETRY_MAX_BACKOFF_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return POLL_INTERVAL_MS;
         }
     }
 
+    private void recordSuccess() {
+        breaker.recordSuccess();
+        consecutiveFailures = 0;
+    }
+
     /**
-     * Get the current scope version from the server
+     * Send a scope request, treating 429 and 5xx (except 501) like I/O errors so they are retried
      */
-    private int getRemoteScopeVersion(String serverUrl, String burpsuiteKey) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(serverUrl + "/scope/version"))
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = transport.sendControl(request, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+        if (status == 429 || (status >= 500 && status != 501)) {
+            throw new IOException("Server returned status " + response.statusCode());
+        }
+        return response;
+    }
+
+    /**
+     * Get the current scope version from the server.
+     * The server may hold the request for up to LONG_POLL_WAIT_MS until the version moves
+     * past {@code since}, and may answer 304 when the version ETag is unchanged.
+     */
+    private int getRemoteScopeVersion(String serverUrl) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = transport
+                .newRequest(serverUrl + "/scope/version?since=" + currentScopeVersion + "&waitMs=" + LONG_POLL_WAIT_MS)
                 .GET()
-                .timeout(java.time.Duration.ofSeconds(10))
-                .header("Authorization", "Bearer " + burpsuiteKey)
-                .build();
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                .timeout(java.time.Duration.ofMillis(LONG_POLL_WAIT_MS + 10_000));
+        String etag = versionEtag;
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        HttpResponse<String> response = send(builder.build());
 
+        if (response.statusCode() == 304) {
+            return currentScopeVersion;
+        }
         if (response.statusCode() == 200) {
             try {
                 JSONBody.ScopeVersionResponse versionResponse = gson.fromJson(response.body(), JSONBody.ScopeVersionResponse.class);
+                versionEtag = response.headers().firstValue("ETag").orElse(null);
                 return versionResponse.getVersion();
             } catch (JsonSyntaxException e) {
                 safeLogToError("Failed to parse scope version JSON: " + e.getMessage());
@@ -115,68 +275,144 @@ public class Scope {
     }
 
     /**
-     * Fetch the full scope from the server and update Burp scope
+     * Bring the local scope up to the remote version, using a delta when possible
+     */
+    private void fetchAndUpdateScope(String serverUrl, int remoteVersion) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        int previousVersion = currentScopeVersion;
+        // A delta can only move forward from our version
+        if (previousVersion < 0 || remoteVersion < previousVersion || !deltaSupported
+                || !fetchAndApplyDelta(serverUrl)) {
+            fetchFullScope(serverUrl, remoteVersion);
+        }
+        if (currentScopeVersion != previousVersion) {
+            saveSnapshot(serverUrl);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        metrics.record(Metrics.Timer.SCOPE_SYNC, elapsed);
+        lastSyncDurationMs = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        lastSyncEpochMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Fetch only the entries added and removed since the local version
+     *
+     * @return true if the delta was applied
      */
-    private void fetchAndUpdateScope(String serverUrl, String apiKey) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(serverUrl + "/scope"))
+    private boolean fetchAndApplyDelta(String serverUrl) throws IOException, InterruptedException {
+        int baseVersion = currentScopeVersion;
+        HttpRequest request = transport.newRequest(serverUrl + "/scope/delta?since=" + baseVersion)
                 .GET()
-                .timeout(java.time.Duration.ofSeconds(10))
-                .header("Authorization", "Bearer " + apiKey)
                 .build();
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = send(request);
 
-        if (response.statusCode() == 200) {
+        if (response.statusCode() == 404 || response.statusCode() == 405 || response.statusCode() == 501) {
+            deltaSupported = false;
+            safeLogToOutput("Server does not support scope deltas, using full scope downloads");
+            return false;
+        }
+        if (response.statusCode() != 200) {
+            // e.g. 410 when the server no longer has history back to our version
+            return false;
+        }
+
+        try {
+            JSONBody.ScopeDeltaResponse delta = gson.fromJson(response.body(), JSONBody.ScopeDeltaResponse.class);
+            if (delta == null) {
+                return false;
+            }
+            applyScopeDelta(delta);
+            return true;
+        } catch (JsonSyntaxException e) {
+            safeLogToError("Error parsing scope delta JSON: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Fetch the full scope from the server and update Burp scope
+     */
+    private void fetchFullScope(String serverUrl, int remoteVersion) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = transport.newRequest(serverUrl + "/scope")
+                .GET();
+        String etag = scopeEtag;
+        if (etag != null && currentScopeVersion >= 0) {
+            builder.header("If-None-Match", etag);
+        }
+        HttpResponse<String> response = send(builder.build());
+
+        if (response.statusCode() == 304) {
+            // Same content under a new version number
+            currentScopeVersion = remoteVersion;
+        } else if (response.statusCode() == 200) {
+            scopeEtag = response.headers().firstValue("ETag").orElse(null);
             updateBurpScope(response.body());
         } else {
             safeLogToError("Failed to fetch scope. Status: " + response.statusCode());
         }
     }
 
+    /**
+     * Apply an incremental scope change to the current matcher
+     */
+    private void applyScopeDelta(JSONBody.ScopeDeltaResponse delta) {
+        ScopeMatcher previous = matcher;
+        ScopeMatcher newMatcher = previous.withChanges(delta.getAdded(), delta.getRemoved());
+
+        // Update the matcher before the version (see updateBurpScope)
+        matcher = newMatcher;
+        currentScopeVersion = delta.getVersion();
+        // The full-scope ETag no longer describes what we hold
+        scopeEtag = null;
+        safeLogToOutput("Scope delta applied! Version: " + currentScopeVersion
+                + ", Added: " + delta.getAdded().size()
+                + ", Removed: " + delta.getRemoved().size()
+                + ", Subdomains: " + newMatcher.size());
+        notifyScopeChanged(previous, newMatcher);
+    }
+
+    private void notifyScopeChanged(ScopeMatcher previous, ScopeMatcher current) {
+        ScopeChangeListener listener = changeListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.scopeChanged(previous, current, currentScopeVersion);
+        } catch (Exception e) {
+            safeLogToError("Scope change listener failed: " + e.getMessage());
+        }
+    }
+
     /**
      * Parse the scope JSON and update Burp's scope
      * Completely replaces the current scope to handle removed domains
      */
     private void updateBurpScope(String scopeJson) {
+        ScopeMatcher previous = matcher;
         try {
             JSONBody.ScopeResponse scopeResponse = gson.fromJson(scopeJson, JSONBody.ScopeResponse.class);
 
             if (scopeResponse == null || scopeResponse.getSubdomains() == null || scopeResponse.getSubdomains().isEmpty()) {
                 safeLogToOutput("No subdomains found in scope response");
                 // Clear the scope if the server returns empty
-                currentScopeSubdomains = Collections.emptySet();
-                exactScopes = Collections.emptySet();
-                wildcardSuffixes = Collections.emptyList();
+                matcher = ScopeMatcher.EMPTY;
                 currentScopeVersion = scopeResponse != null ? scopeResponse.getVersion() : currentScopeVersion;
+                notifyScopeChanged(previous, ScopeMatcher.EMPTY);
                 return;
             }
 
-            // Create new collections
-            Set<String> newScopeSubdomains = new HashSet<>();
-            Set<String> newExactScopes = new HashSet<>();
-            List<String> newWildcardSuffixes = new ArrayList<>();
-
-            // Add all subdomains from server response
-            for (String subdomain : scopeResponse.getSubdomains()) {
-                if (subdomain != null && !subdomain.isEmpty()) {
-                    newScopeSubdomains.add(subdomain);
-
-                    if (subdomain.startsWith("*.")) {
-                        newWildcardSuffixes.add(subdomain.substring(2));
-                    } else {
-                        newExactScopes.add(subdomain);
-                    }
-                }
-            }
+            // Compile the matcher once for this scope version
+            ScopeMatcher newMatcher = ScopeMatcher.compile(scopeResponse.getSubdomains());
 
-            // Update references atomically
-            currentScopeSubdomains = newScopeSubdomains;
-            exactScopes = newExactScopes;
-            wildcardSuffixes = newWildcardSuffixes;
+            // Update reference atomically
+            matcher = newMatcher;
 
-            // Update local version
+            // Update local version (after the matcher, so cached decisions stamped
+            // with the new version were always computed with the new matcher)
             currentScopeVersion = scopeResponse.getVersion();
             safeLogToOutput("Scope updated successfully! Version: " + currentScopeVersion + ", Subdomains: " + scopeResponse.getSubdomains().size());
+            notifyScopeChanged(previous, newMatcher);
 
         } catch (JsonSyntaxException e) {
             safeLogToError("Error parsing scope JSON: " + e.getMessage());
@@ -185,49 +421,78 @@ public class Scope {
     }
 
     /**
-     * Check if a full URL is in scope
+     * Check if a request is in scope, using the host of its HTTP service
      */
-    public boolean isInScope(String url) {
-        if (url == null || url.isEmpty()) {
-            return false;
-        }
-
-        try {
-            URI uri = URI.create(url);
-            String host = uri.getHost();
-            return isHostInScope(host);
-        } catch (Exception e) {
-            safeLogToError("Error checking scope for URL: " + url + " - " + e.getMessage());
+    public boolean isInScope(burp.api.montoya.http.message.requests.HttpRequest request) {
+        if (request == null || request.httpService() == null) {
             return false;
         }
+        return isHostInScope(request.httpService().host());
     }
 
     /**
-     * Check if a host is in scope efficiently
+     * Check if a host is in scope efficiently.
+     * Decisions are served from the per-host cache; misses go to the compiled matcher
+     * (O(number of labels), no allocation).
      */
     public boolean isHostInScope(String host) {
         if (host == null || host.isEmpty()) return false;
 
-        // Check exact matches first (O(1))
-        if (exactScopes.contains(host)) {
-            return true;
+        int version = currentScopeVersion;
+        Boolean cached = decisionCache.get(host, version);
+        if (cached != null) {
+            return cached;
         }
 
-        // Check wildcards
-        for (String suffix : wildcardSuffixes) {
-            if (host.endsWith("." + suffix) || host.equals(suffix)) {
-                return true;
+        boolean inScope = matcher.matches(host);
+        decisionCache.put(host, version, inScope);
+        return inScope;
+    }
+
+    /**
+     * Extract the host of an absolute URL without going through java.net.URI
+     *
+     * @return the host, or null if the URL has no authority
+     */
+    static String hostOf(String url) {
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 0) {
+            return null;
+        }
+        int start = schemeEnd + 3;
+        int end = url.length();
+        for (int i = start; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                end = i;
+                break;
             }
         }
-        return false;
-    }
 
+        // Skip user info
+        int at = url.lastIndexOf('@', end - 1);
+        if (at >= start) {
+            start = at + 1;
+        }
+
+        // IPv6 literal: [::1]:8080
+        if (start < end && url.charAt(start) == '[') {
+            int close = url.indexOf(']', start);
+            return close > start && close < end ? url.substring(start, close + 1) : null;
+        }
+
+        int colon = url.indexOf(':', start);
+        if (colon >= 0 && colon < end) {
+            end = colon;
+        }
+        return start < end ? url.substring(start, end) : null;
+    }
 
     /**
      * Get the current scope subdomains
      */
     public Set<String> getScope() {
-        return currentScopeSubdomains;
+        return new HashSet<>(matcher.entries());
     }
 
     /**
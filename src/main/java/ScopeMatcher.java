@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable, compiled host matcher for a scope.
+ * <p>
+ * Entries are stored in a trie keyed on reversed domain labels, so
+ * {@code *.api.example.com} lives under {@code com -> example -> api}. A lookup walks
+ * the host from its last label to its first, which costs O(number of labels)
+ * regardless of the scope size. Labels are compared in place with
+ * {@link String#regionMatches}, so lookups do not allocate.
+ * <p>
+ * Matching rules are the same as the original list-based check: an exact entry matches
+ * only that host, and a {@code *.suffix} entry matches the suffix itself and every
+ * host below it. Hosts are compared case-insensitively.
+ */
+public final class ScopeMatcher {
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private static final Node EMPTY_NODE = new Node(new String[0], new Node[0], false, false);
+
+    public static final ScopeMatcher EMPTY = new ScopeMatcher(EMPTY_NODE, 0);
+
+    private final Node root;
+    private final int size;
+
+    private ScopeMatcher(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Compile a matcher from scope entries such as {@code app.example.com} or {@code *.example.com}
+     */
+    public static ScopeMatcher compile(Collection<String> entries) {
+        MutableNode root = new MutableNode();
+        int size = 0;
+        for (String entry : entries) {
+            if (entry == null || entry.isEmpty()) {
+                continue;
+            }
+            String normalized = entry.toLowerCase(Locale.ROOT);
+            boolean wildcard = normalized.startsWith(WILDCARD_PREFIX);
+
+            MutableNode node = root;
+            for (String label : reversedLabels(normalized, wildcard)) {
+                node = node.children.computeIfAbsent(label, key -> new MutableNode());
+            }
+
+            boolean added = wildcard ? !node.wildcard : !node.exact;
+            if (wildcard) {
+                node.wildcard = true;
+            } else {
+                node.exact = true;
+            }
+            if (added) {
+                size++;
+            }
+        }
+        return new ScopeMatcher(root.freeze(), size);
+    }
+
+    /**
+     * Derive a new matcher by removing and adding entries.
+     * Only the trie nodes on the paths of changed entries are copied; every other
+     * subtree is shared with this matcher, which stays unchanged. An entry present in
+     * both lists ends up added.
+     */
+    public ScopeMatcher withChanges(Collection<String> added, Collection<String> removed) {
+        DeltaNode delta = new DeltaNode();
+        for (String entry : removed) {
+            if (entry != null && !entry.isEmpty()) {
+                delta.locate(entry).removeEntry(entry);
+            }
+        }
+        for (String entry : added) {
+            if (entry != null && !entry.isEmpty()) {
+                delta.locate(entry).addEntry(entry);
+            }
+        }
+
+        int[] sizeChange = {0};
+        Node newRoot = merge(root, delta, sizeChange);
+        return new ScopeMatcher(newRoot != null ? newRoot : EMPTY_NODE, size + sizeChange[0]);
+    }
+
+    /**
+     * Apply a delta subtree to an existing node (which may be null)
+     *
+     * @return the new node, or null if it ends up with no entries and no children
+     */
+    private static Node merge(Node node, DeltaNode delta, int[] sizeChange) {
+        boolean exact = node != null && node.exact;
+        boolean wildcard = node != null && node.wildcard;
+
+        if (delta.removeExact && exact) {
+            exact = false;
+            sizeChange[0]--;
+        }
+        if (delta.removeWildcard && wildcard) {
+            wildcard = false;
+            sizeChange[0]--;
+        }
+        if (delta.addExact && !exact) {
+            exact = true;
+            sizeChange[0]++;
+        }
+        if (delta.addWildcard && !wildcard) {
+            wildcard = true;
+            sizeChange[0]++;
+        }
+
+        if (delta.children.isEmpty()) {
+            if (node == null) {
+                return exact || wildcard ? new Node(new String[0], new Node[0], exact, wildcard) : null;
+            }
+            if (!exact && !wildcard && node.labels == null) {
+                return null;
+            }
+            return new Node(node, exact, wildcard);
+        }
+
+        // Copy this node's children, replacing the ones touched by the delta
+        Map<String, Node> children = new HashMap<>();
+        if (node != null && node.labels != null) {
+            for (int i = 0; i < node.labels.length; i++) {
+                if (node.labels[i] != null) {
+                    children.put(node.labels[i], node.children[i]);
+                }
+            }
+        }
+        for (Map.Entry<String, DeltaNode> child : delta.children.entrySet()) {
+            Node merged = merge(children.get(child.getKey()), child.getValue(), sizeChange);
+            if (merged != null) {
+                children.put(child.getKey(), merged);
+            } else {
+                children.remove(child.getKey());
+            }
+        }
+
+        if (!exact && !wildcard && children.isEmpty()) {
+            return null;
+        }
+        return new Node(children.keySet().toArray(new String[0]), children.values().toArray(new Node[0]),
+                exact, wildcard);
+    }
+
+    /**
+     * Split a normalized entry into its labels, last label first
+     */
+    private static List<String> reversedLabels(String normalized, boolean wildcard) {
+        String domain = wildcard ? normalized.substring(WILDCARD_PREFIX.length()) : normalized;
+        List<String> labels = new ArrayList<>();
+        int end = domain.length();
+        while (end >= 0) {
+            int start = domain.lastIndexOf('.', end - 1) + 1;
+            labels.add(domain.substring(start, end));
+            end = start - 1;
+        }
+        return labels;
+    }
+
+    /**
+     * Check whether a host is matched by an exact or wildcard entry
+     */
+    public boolean matches(String host) {
+        if (host == null || host.isEmpty()) {
+            return false;
+        }
+
+        Node node = root;
+        int end = host.length();
+        while (end >= 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            node = node.child(host, start, end);
+            if (node == null) {
+                return false;
+            }
+            if (node.wildcard) {
+                return true;
+            }
+            end = start - 1;
+        }
+        return node.exact;
+    }
+
+    /**
+     * Number of distinct entries in this matcher
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rebuild the list of entries, in their normalized (lower-case) form
+     */
+    public List<String> entries() {
+        List<String> entries = new ArrayList<>(size);
+        root.collect(new StringBuilder(), entries);
+        return entries;
+    }
+
+    /**
+     * Trie node used while compiling
+     */
+    private static final class MutableNode {
+        private final Map<String, MutableNode> children = new HashMap<>();
+        private boolean exact;
+        private boolean wildcard;
+
+        private Node freeze() {
+            String[] labels = new String[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<String, MutableNode> child : children.entrySet()) {
+                labels[i] = child.getKey();
+                nodes[i] = child.getValue().freeze();
+                i++;
+            }
+            return new Node(labels, nodes, exact, wildcard);
+        }
+    }
+
+    /**
+     * Changes to apply to one trie node, used by {@link #withChanges}
+     */
+    private static final class DeltaNode {
+        private final Map<String, DeltaNode> children = new HashMap<>();
+        private boolean addExact;
+        private boolean addWildcard;
+        private boolean removeExact;
+        private boolean removeWildcard;
+
+        private DeltaNode locate(String entry) {
+            String normalized = entry.toLowerCase(Locale.ROOT);
+            DeltaNode node = this;
+            for (String label : reversedLabels(normalized, normalized.startsWith(WILDCARD_PREFIX))) {
+                node = node.children.computeIfAbsent(label, key -> new DeltaNode());
+            }
+            return node;
+        }
+
+        private void addEntry(String entry) {
+            if (entry.startsWith(WILDCARD_PREFIX)) {
+                addWildcard = true;
+            } else {
+                addExact = true;
+            }
+        }
+
+        private void removeEntry(String entry) {
+            if (entry.startsWith(WILDCARD_PREFIX)) {
+                removeWildcard = true;
+            } else {
+                removeExact = true;
+            }
+        }
+    }
+
+    /**
+     * Immutable trie node with an open-addressing child table
+     */
+    private static final class Node {
+        private final String[] labels;
+        private final Node[] children;
+        private final int mask;
+        private final boolean exact;
+        private final boolean wildcard;
+
+        private Node(String[] childLabels, Node[] childNodes, boolean exact, boolean wildcard) {
+            this.exact = exact;
+            this.wildcard = wildcard;
+
+            if (childLabels.length == 0) {
+                this.labels = null;
+                this.children = null;
+                this.mask = 0;
+                return;
+            }
+
+            // Keep the table at most half full so probe chains stay short
+            int capacity = Integer.highestOneBit(Math.max(2, childLabels.length) * 2 - 1) << 1;
+            this.labels = new String[capacity];
+            this.children = new Node[capacity];
+            this.mask = capacity - 1;
+            for (int i = 0; i < childLabels.length; i++) {
+                String label = childLabels[i];
+                int slot = hash(label, 0, label.length()) & mask;
+                while (labels[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                labels[slot] = label;
+                children[slot] = childNodes[i];
+            }
+        }
+
+        /**
+         * Copy of a node sharing its child table, with different entry flags
+         */
+        private Node(Node template, boolean exact, boolean wildcard) {
+            this.labels = template.labels;
+            this.children = template.children;
+            this.mask = template.mask;
+            this.exact = exact;
+            this.wildcard = wildcard;
+        }
+
+        /**
+         * Find the child whose label equals {@code host[start, end)}, ignoring case
+         */
+        private Node child(String host, int start, int end) {
+            if (labels == null) {
+                return null;
+            }
+            int length = end - start;
+            int slot = hash(host, start, end) & mask;
+            String label;
+            while ((label = labels[slot]) != null) {
+                if (label.length() == length && host.regionMatches(true, start, label, 0, length)) {
+                    return children[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private void collect(StringBuilder suffix, List<String> out) {
+            if (suffix.length() > 0) {
+                if (exact) {
+                    out.add(suffix.toString());
+                }
+                if (wildcard) {
+                    out.add(WILDCARD_PREFIX + suffix);
+                }
+            }
+            if (labels == null) {
+                return;
+            }
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == null) {
+                    continue;
+                }
+                StringBuilder child = new StringBuilder(labels[i].length() + 1 + suffix.length()).append(labels[i]);
+                if (suffix.length() > 0) {
+                    child.append('.').append(suffix);
+                }
+                children[i].collect(child, out);
+            }
+        }
+    }
+
+    /**
+     * Case-insensitive hash of {@code value[start, end)}, matching on both ASCII cases
+     */
+    private static int hash(String value, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            h = 31 * h + c;
+        }
+        // Spread the bits so that the low bits used by the mask are well mixed
+        return h ^ (h >>> 16);
+    }
+}
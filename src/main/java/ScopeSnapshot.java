@@ -0,0 +1,118 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact on-disk copy of the last scope received from the server, loaded at startup
+ * so traffic is filtered correctly before the first sync completes.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ *   magic "DBSC" | format version (byte) | server URL (UTF) | scope version (int)
+ *   entry count (int) | entries, sorted: [length (unsigned short)][UTF-8 bytes] ...
+ *   CRC32 of everything above (int)
+ * </pre>
+ */
+public final class ScopeSnapshot {
+
+    /**
+     * A scope loaded from disk
+     */
+    public record Snapshot(String serverUrl, int version, List<String> entries) {
+    }
+
+    private static final int MAGIC = 0x44425343; // "DBSC"
+    private static final byte FORMAT_VERSION = 1;
+
+    private ScopeSnapshot() {
+        throw new UnsupportedOperationException("Utility class cannot be instantiated");
+    }
+
+    /**
+     * Write a snapshot atomically (temporary file + rename)
+     */
+    public static void write(Path file, String serverUrl, int version, List<String> entries) throws IOException {
+        List<String> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted);
+
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream fileOut = Files.newOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 64 * 1024), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(serverUrl != null ? serverUrl : "");
+            out.writeInt(version);
+            out.writeInt(sorted.size());
+            for (String entry : sorted) {
+                byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xFFFF) {
+                    throw new IOException("Scope entry too long: " + bytes.length + " bytes");
+                }
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot
+     *
+     * @return the snapshot, or null if the file does not exist
+     * @throws IOException if the file is unreadable, from another format or corrupt
+     */
+    public static Snapshot read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (InputStream fileIn = Files.newInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(fileIn, 64 * 1024), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+                throw new IOException("Not a scope snapshot or unsupported format");
+            }
+            String serverUrl = in.readUTF();
+            int version = in.readInt();
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid entry count: " + count);
+            }
+
+            List<String> entries = new ArrayList<>(Math.min(count, 1 << 20));
+            byte[] buffer = new byte[256];
+            for (int i = 0; i < count; i++) {
+                int length = in.readUnsignedShort();
+                if (length > buffer.length) {
+                    buffer = new byte[length];
+                }
+                in.readFully(buffer, 0, length);
+                entries.add(new String(buffer, 0, length, StandardCharsets.UTF_8));
+            }
+
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Checksum mismatch");
+            }
+            return new Snapshot(serverUrl, version, entries);
+        }
+    }
+}
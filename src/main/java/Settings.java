@@ -4,6 +4,9 @@ import burp.api.montoya.ui.settings.SettingsPanelPersistence;
 import burp.api.montoya.ui.settings.SettingsPanelSetting;
 import burp.api.montoya.ui.settings.SettingsPanelWithData;
 
+import java.nio.file.Path;
+import java.util.Arrays;
+
 /**
  * Manages all settings for the DeepBounty extension
  */
@@ -14,10 +17,73 @@ public class Settings {
     // Settings keys
     private static final String SERVER_URL_KEY = "DeepBounty Server URL";
     private static final String BURPSUITE_KEY = "Burpsuite Key";
+    private static final String INGEST_ENDPOINTS_KEY = "Ingest Endpoints (comma-separated, empty = server URL)";
+    private static final String BATCH_ENABLED_KEY = "Batch Ingest";
+    private static final String BATCH_MAX_RECORDS_KEY = "Batch Max Records";
+    private static final String BATCH_MAX_BYTES_KEY = "Batch Max Bytes";
+    private static final String BATCH_FLUSH_INTERVAL_KEY = "Batch Flush Interval (ms)";
+    private static final String QUEUE_MAX_RECORDS_KEY = "Queue Capacity (records)";
+    private static final String QUEUE_MAX_BYTES_KEY = "Queue Capacity (bytes)";
+    private static final String QUEUE_OVERFLOW_POLICY_KEY = "Queue Overflow Policy";
+    private static final String QUEUE_BLOCK_TIMEOUT_KEY = "Queue Block Timeout (ms)";
+    private static final String SPOOL_ENABLED_KEY = "Spool Undelivered Traffic To Disk";
+    private static final String SPOOL_MAX_SIZE_KEY = "Spool Max Size (MB)";
+    private static final String CAPTURE_WORKERS_KEY = "Capture Worker Threads";
+    private static final String CAPTURE_RULES_KEY = "Capture Rules";
+    private static final String BODY_DEDUPLICATION_KEY = "Deduplicate Bodies By Hash";
+    private static final String INLINE_BODY_LIMIT_KEY = "Inline Body Limit (KB)";
+    private static final String LARGE_BODY_MODE_KEY = "Large Body Handling";
+    private static final String TRUNCATED_BODY_SIZE_KEY = "Truncated Body Size (KB)";
+    private static final String TOOL_RATE_LIMITS_KEY = "Tool Rate Limits (records/s)";
+    private static final String PER_HOST_RATE_LIMIT_KEY = "Per-Host Rate Limit (records/s, 0 = off)";
+    private static final String HTTP2_ENABLED_KEY = "Use HTTP/2";
+    private static final String MAX_CONCURRENT_REQUESTS_KEY = "Max Concurrent Ingest Requests";
+    private static final String REQUEST_TIMEOUT_KEY = "Request Timeout (s)";
+    private static final String MAX_RETRY_ATTEMPTS_KEY = "Max Delivery Attempts";
+    private static final String CIRCUIT_FAILURE_THRESHOLD_KEY = "Circuit Breaker Failure Threshold";
+    private static final String CIRCUIT_OPEN_TIME_KEY = "Circuit Breaker Open Time (s)";
+    private static final String WIRE_FORMAT_KEY = "Batch Wire Format";
+    private static final String BACKFILL_ENABLED_KEY = "Backfill History When Scope Expands";
+    private static final String BACKFILL_THREADS_KEY = "Backfill Threads";
 
     // Default values
     private static final String DEFAULT_SERVER_URL = "http://localhost:3000";
     private static final String DEFAULT_BURPSUITE_KEY = "";
+    private static final String DEFAULT_INGEST_ENDPOINTS = "";
+    private static final boolean DEFAULT_BATCH_ENABLED = true;
+    private static final int DEFAULT_BATCH_MAX_RECORDS = 200;
+    private static final int DEFAULT_BATCH_MAX_BYTES = 4 * 1024 * 1024;
+    private static final int DEFAULT_BATCH_FLUSH_INTERVAL = 1000;
+    private static final int DEFAULT_QUEUE_MAX_RECORDS = 10_000;
+    private static final int DEFAULT_QUEUE_MAX_BYTES = 64 * 1024 * 1024;
+    private static final IngestQueue.OverflowPolicy DEFAULT_QUEUE_OVERFLOW_POLICY = IngestQueue.OverflowPolicy.DROP_NEWEST;
+    private static final int DEFAULT_QUEUE_BLOCK_TIMEOUT = 50;
+    private static final boolean DEFAULT_SPOOL_ENABLED = true;
+    private static final int DEFAULT_SPOOL_MAX_SIZE_MB = 1024;
+    private static final int DEFAULT_CAPTURE_WORKERS = 2;
+    private static final boolean DEFAULT_BODY_DEDUPLICATION = true;
+    private static final int DEFAULT_INLINE_BODY_LIMIT_KB = 1024;
+    private static final LargeBodies.Mode DEFAULT_LARGE_BODY_MODE = LargeBodies.Mode.UPLOAD;
+    private static final int DEFAULT_TRUNCATED_BODY_SIZE_KB = 256;
+    // Upper bound of the body size settings, so they fit in an int once in bytes
+    private static final int MAX_BODY_SIZE_KB = 1024 * 1024;
+    private static final String DEFAULT_TOOL_RATE_LIMITS = "INTRUDER=100, SCANNER=100";
+    private static final int DEFAULT_PER_HOST_RATE_LIMIT = 0;
+    private static final boolean DEFAULT_HTTP2_ENABLED = true;
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+    private static final int DEFAULT_REQUEST_TIMEOUT = 10;
+    private static final int DEFAULT_MAX_RETRY_ATTEMPTS = 3;
+    private static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final int DEFAULT_CIRCUIT_OPEN_TIME = 15;
+    private static final IngestBatcher.WireFormat DEFAULT_WIRE_FORMAT = IngestBatcher.WireFormat.JSON;
+    private static final boolean DEFAULT_BACKFILL_ENABLED = true;
+    private static final int DEFAULT_BACKFILL_THREADS = 2;
+    private static final String DEFAULT_CAPTURE_RULES =
+            "drop status:304; drop ext:png,jpg,jpeg,gif,ico,svg,webp,css,map,woff,woff2,ttf,eot,mp4,webm";
+
+    // Local directory for extension state that must survive a reload (-Ddeepbounty.dataDir overrides it)
+    private static final Path DATA_DIRECTORY = Path.of(System.getProperty("deepbounty.dataDir",
+            Path.of(System.getProperty("user.home"), ".deepbounty").toString()));
 
     public Settings(MontoyaApi api) {
         // Create settings panel
@@ -27,7 +93,41 @@ public class Settings {
                 .withDescription("Configure DeepBounty extension to sync scope from your server.")
                 .withSettings(
                         SettingsPanelSetting.stringSetting(SERVER_URL_KEY, DEFAULT_SERVER_URL),
-                        SettingsPanelSetting.stringSetting(BURPSUITE_KEY, DEFAULT_BURPSUITE_KEY)
+                        SettingsPanelSetting.stringSetting(BURPSUITE_KEY, DEFAULT_BURPSUITE_KEY),
+                        SettingsPanelSetting.stringSetting(INGEST_ENDPOINTS_KEY, DEFAULT_INGEST_ENDPOINTS),
+                        SettingsPanelSetting.booleanSetting(BATCH_ENABLED_KEY, DEFAULT_BATCH_ENABLED),
+                        SettingsPanelSetting.integerSetting(BATCH_MAX_RECORDS_KEY, DEFAULT_BATCH_MAX_RECORDS),
+                        SettingsPanelSetting.integerSetting(BATCH_MAX_BYTES_KEY, DEFAULT_BATCH_MAX_BYTES),
+                        SettingsPanelSetting.integerSetting(BATCH_FLUSH_INTERVAL_KEY, DEFAULT_BATCH_FLUSH_INTERVAL),
+                        SettingsPanelSetting.integerSetting(QUEUE_MAX_RECORDS_KEY, DEFAULT_QUEUE_MAX_RECORDS),
+                        SettingsPanelSetting.integerSetting(QUEUE_MAX_BYTES_KEY, DEFAULT_QUEUE_MAX_BYTES),
+                        SettingsPanelSetting.listSetting(QUEUE_OVERFLOW_POLICY_KEY,
+                                Arrays.stream(IngestQueue.OverflowPolicy.values()).map(IngestQueue.OverflowPolicy::label).toList(),
+                                DEFAULT_QUEUE_OVERFLOW_POLICY.label()),
+                        SettingsPanelSetting.integerSetting(QUEUE_BLOCK_TIMEOUT_KEY, DEFAULT_QUEUE_BLOCK_TIMEOUT),
+                        SettingsPanelSetting.booleanSetting(SPOOL_ENABLED_KEY, DEFAULT_SPOOL_ENABLED),
+                        SettingsPanelSetting.integerSetting(SPOOL_MAX_SIZE_KEY, DEFAULT_SPOOL_MAX_SIZE_MB),
+                        SettingsPanelSetting.integerSetting(CAPTURE_WORKERS_KEY, DEFAULT_CAPTURE_WORKERS),
+                        SettingsPanelSetting.stringSetting(CAPTURE_RULES_KEY, DEFAULT_CAPTURE_RULES),
+                        SettingsPanelSetting.booleanSetting(BODY_DEDUPLICATION_KEY, DEFAULT_BODY_DEDUPLICATION),
+                        SettingsPanelSetting.integerSetting(INLINE_BODY_LIMIT_KEY, DEFAULT_INLINE_BODY_LIMIT_KB),
+                        SettingsPanelSetting.listSetting(LARGE_BODY_MODE_KEY,
+                                Arrays.stream(LargeBodies.Mode.values()).map(LargeBodies.Mode::label).toList(),
+                                DEFAULT_LARGE_BODY_MODE.label()),
+                        SettingsPanelSetting.integerSetting(TRUNCATED_BODY_SIZE_KEY, DEFAULT_TRUNCATED_BODY_SIZE_KB),
+                        SettingsPanelSetting.stringSetting(TOOL_RATE_LIMITS_KEY, DEFAULT_TOOL_RATE_LIMITS),
+                        SettingsPanelSetting.integerSetting(PER_HOST_RATE_LIMIT_KEY, DEFAULT_PER_HOST_RATE_LIMIT),
+                        SettingsPanelSetting.booleanSetting(HTTP2_ENABLED_KEY, DEFAULT_HTTP2_ENABLED),
+                        SettingsPanelSetting.integerSetting(MAX_CONCURRENT_REQUESTS_KEY, DEFAULT_MAX_CONCURRENT_REQUESTS),
+                        SettingsPanelSetting.integerSetting(REQUEST_TIMEOUT_KEY, DEFAULT_REQUEST_TIMEOUT),
+                        SettingsPanelSetting.integerSetting(MAX_RETRY_ATTEMPTS_KEY, DEFAULT_MAX_RETRY_ATTEMPTS),
+                        SettingsPanelSetting.integerSetting(CIRCUIT_FAILURE_THRESHOLD_KEY, DEFAULT_CIRCUIT_FAILURE_THRESHOLD),
+                        SettingsPanelSetting.integerSetting(CIRCUIT_OPEN_TIME_KEY, DEFAULT_CIRCUIT_OPEN_TIME),
+                        SettingsPanelSetting.listSetting(WIRE_FORMAT_KEY,
+                                Arrays.stream(IngestBatcher.WireFormat.values()).map(IngestBatcher.WireFormat::label).toList(),
+                                DEFAULT_WIRE_FORMAT.label()),
+                        SettingsPanelSetting.booleanSetting(BACKFILL_ENABLED_KEY, DEFAULT_BACKFILL_ENABLED),
+                        SettingsPanelSetting.integerSetting(BACKFILL_THREADS_KEY, DEFAULT_BACKFILL_THREADS)
                 )
                 .withKeywords("DeepBounty", "Settings")
                 .build();
@@ -43,11 +143,223 @@ public class Settings {
         return settingsPanel.getString(SERVER_URL_KEY);
     }
 
+    /**
+     * Get the ingest node URLs traffic is sharded over, comma-separated (empty to send
+     * everything to the server URL). Scope is always synced from the server URL.
+     */
+    public String getIngestEndpoints() {
+        return settingsPanel.getString(INGEST_ENDPOINTS_KEY);
+    }
+
     /**
      * Get the configured Burpsuite key
      */
     public String getBurpsuiteKey() {
         return settingsPanel.getString(BURPSUITE_KEY);
     }
-}
 
+    /**
+     * Whether traffic should be sent in batches to the bulk ingest endpoint
+     */
+    public boolean isBatchEnabled() {
+        return settingsPanel.getBoolean(BATCH_ENABLED_KEY);
+    }
+
+    /**
+     * Get the maximum number of records per batch
+     */
+    public int getBatchMaxRecords() {
+        return positiveOrDefault(settingsPanel.getInteger(BATCH_MAX_RECORDS_KEY), DEFAULT_BATCH_MAX_RECORDS);
+    }
+
+    /**
+     * Get the maximum estimated payload size of a batch in bytes
+     */
+    public int getBatchMaxBytes() {
+        return positiveOrDefault(settingsPanel.getInteger(BATCH_MAX_BYTES_KEY), DEFAULT_BATCH_MAX_BYTES);
+    }
+
+    /**
+     * Get the maximum time a record may wait in the batch buffer, in milliseconds
+     */
+    public int getBatchFlushIntervalMs() {
+        return positiveOrDefault(settingsPanel.getInteger(BATCH_FLUSH_INTERVAL_KEY), DEFAULT_BATCH_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Get the maximum number of records waiting for delivery
+     */
+    public int getQueueMaxRecords() {
+        return positiveOrDefault(settingsPanel.getInteger(QUEUE_MAX_RECORDS_KEY), DEFAULT_QUEUE_MAX_RECORDS);
+    }
+
+    /**
+     * Get the maximum estimated bytes waiting for delivery
+     */
+    public long getQueueMaxBytes() {
+        return positiveOrDefault(settingsPanel.getInteger(QUEUE_MAX_BYTES_KEY), DEFAULT_QUEUE_MAX_BYTES);
+    }
+
+    /**
+     * Get what to do with new traffic when the ingest queue is full
+     */
+    public IngestQueue.OverflowPolicy getQueueOverflowPolicy() {
+        return IngestQueue.OverflowPolicy.fromLabel(settingsPanel.getString(QUEUE_OVERFLOW_POLICY_KEY));
+    }
+
+    /**
+     * Get how long the handler may wait for room in the queue with the Block policy, in milliseconds
+     */
+    public int getQueueBlockTimeoutMs() {
+        return positiveOrDefault(settingsPanel.getInteger(QUEUE_BLOCK_TIMEOUT_KEY), DEFAULT_QUEUE_BLOCK_TIMEOUT);
+    }
+
+    /**
+     * Whether traffic that could not be delivered should be spooled to disk and replayed later
+     */
+    public boolean isSpoolEnabled() {
+        return settingsPanel.getBoolean(SPOOL_ENABLED_KEY);
+    }
+
+    /**
+     * Get the maximum size of the disk spool in bytes
+     */
+    public long getSpoolMaxBytes() {
+        return positiveOrDefault(settingsPanel.getInteger(SPOOL_MAX_SIZE_KEY), DEFAULT_SPOOL_MAX_SIZE_MB) * 1024L * 1024L;
+    }
+
+    /**
+     * Get the number of threads extracting and queueing captured traffic (applied on reload)
+     */
+    public int getCaptureWorkers() {
+        return positiveOrDefault(settingsPanel.getInteger(CAPTURE_WORKERS_KEY), DEFAULT_CAPTURE_WORKERS);
+    }
+
+    /**
+     * Get the capture rules text (see CaptureRules for the syntax)
+     */
+    public String getCaptureRules() {
+        return settingsPanel.getString(CAPTURE_RULES_KEY);
+    }
+
+    /**
+     * Whether bodies the server already stores should be sent as a hash reference only,
+     * to nodes that showed they resolve such references
+     */
+    public boolean isBodyDeduplicationEnabled() {
+        return settingsPanel.getBoolean(BODY_DEDUPLICATION_KEY);
+    }
+
+    /**
+     * Get the largest body sent inline in its record, in bytes
+     */
+    public int getInlineBodyLimitBytes() {
+        return Math.clamp(settingsPanel.getInteger(INLINE_BODY_LIMIT_KEY), 1, MAX_BODY_SIZE_KB) * 1024;
+    }
+
+    /**
+     * Get what to do with bodies above the inline limit
+     */
+    public LargeBodies.Mode getLargeBodyMode() {
+        return LargeBodies.Mode.fromLabel(settingsPanel.getString(LARGE_BODY_MODE_KEY));
+    }
+
+    /**
+     * Get how much of a truncated body is kept, in bytes (at most the inline limit)
+     */
+    public int getTruncatedBodySizeBytes() {
+        return Math.min(Math.clamp(settingsPanel.getInteger(TRUNCATED_BODY_SIZE_KEY), 0, MAX_BODY_SIZE_KB) * 1024,
+                getInlineBodyLimitBytes());
+    }
+
+    /**
+     * Get the per-tool capture rate limits, as "TOOL=records per second" pairs
+     */
+    public String getToolRateLimits() {
+        return settingsPanel.getString(TOOL_RATE_LIMITS_KEY);
+    }
+
+    /**
+     * Get the capture rate limit per host in records per second (0 disables it)
+     */
+    public int getPerHostRateLimit() {
+        return Math.max(0, settingsPanel.getInteger(PER_HOST_RATE_LIMIT_KEY));
+    }
+
+    /**
+     * Whether the server connection should use HTTP/2 when the server supports it (applied on reload)
+     */
+    public boolean isHttp2Enabled() {
+        return settingsPanel.getBoolean(HTTP2_ENABLED_KEY);
+    }
+
+    /**
+     * Get the maximum number of ingest requests in flight at once (applied on reload)
+     */
+    public int getMaxConcurrentRequests() {
+        return positiveOrDefault(settingsPanel.getInteger(MAX_CONCURRENT_REQUESTS_KEY), DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * Get the timeout of a single request to the server, in seconds
+     */
+    public int getRequestTimeoutSeconds() {
+        return positiveOrDefault(settingsPanel.getInteger(REQUEST_TIMEOUT_KEY), DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * Get how many times a request is attempted before its records are spooled
+     */
+    public int getMaxRetryAttempts() {
+        return positiveOrDefault(settingsPanel.getInteger(MAX_RETRY_ATTEMPTS_KEY), DEFAULT_MAX_RETRY_ATTEMPTS);
+    }
+
+    /**
+     * Get the number of consecutive failures that opens a circuit breaker
+     */
+    public int getCircuitBreakerFailureThreshold() {
+        return positiveOrDefault(settingsPanel.getInteger(CIRCUIT_FAILURE_THRESHOLD_KEY), DEFAULT_CIRCUIT_FAILURE_THRESHOLD);
+    }
+
+    /**
+     * Get how long an open circuit breaker rejects calls before probing the server, in seconds
+     */
+    public int getCircuitBreakerOpenSeconds() {
+        return positiveOrDefault(settingsPanel.getInteger(CIRCUIT_OPEN_TIME_KEY), DEFAULT_CIRCUIT_OPEN_TIME);
+    }
+
+    /**
+     * Get the encoding of batches sent to the bulk endpoint
+     */
+    public IngestBatcher.WireFormat getWireFormat() {
+        return IngestBatcher.WireFormat.fromLabel(settingsPanel.getString(WIRE_FORMAT_KEY));
+    }
+
+    /**
+     * Whether proxy history and site map items are sent when their host enters the scope
+     */
+    public boolean isBackfillEnabled() {
+        return settingsPanel.getBoolean(BACKFILL_ENABLED_KEY);
+    }
+
+    /**
+     * Get the number of threads walking Burp's history during a backfill
+     */
+    public int getBackfillThreads() {
+        return positiveOrDefault(settingsPanel.getInteger(BACKFILL_THREADS_KEY), DEFAULT_BACKFILL_THREADS);
+    }
+
+    /**
+     * Get the local directory where the extension keeps its state
+     */
+    public Path getDataDirectory() {
+        return DATA_DIRECTORY;
+    }
+
+    /**
+     * Fall back to the default when a numeric setting is zero or negative
+     */
+    private static int positiveOrDefault(int value, int defaultValue) {
+        return value > 0 ? value : defaultValue;
+    }
+}
@@ -0,0 +1,310 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only on-disk spool for traffic that could not be delivered.
+ * <p>
+ * Records are appended to numbered segment files. Each record is stored as
+ * {@code [int length][int crc32][payload]}, and a record whose checksum does not
+ * match (for example a write torn by a crash) ends the readable part of its segment.
+ * The read position is checkpointed in a small side file, so the spool survives an
+ * extension reload. When the spool grows past its size cap, whole segments are
+ * evicted starting with the oldest.
+ */
+public class Spool {
+
+    /**
+     * Records read from the head of the spool, to be committed once delivered
+     */
+    public record Batch(List<byte[]> records, long segmentId, long endOffset) {
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String POSITION_FILE = "read.pos";
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final long SEGMENT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private final Path directory;
+    private final Settings settings;
+
+    // Segment id -> size in bytes, oldest first
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private FileChannel activeChannel;
+    private long activeSegmentId;
+    private long totalBytes;
+
+    // Read checkpoint
+    private long readSegmentId;
+    private long readOffset;
+
+    private final LongAdder evictedSegments = new LongAdder();
+    private final LongAdder corruptSegments = new LongAdder();
+
+    public Spool(Path directory, Settings settings) throws IOException {
+        this.directory = directory;
+        this.settings = settings;
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    /**
+     * Load existing segments and the read checkpoint left by a previous run
+     */
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                Long id = parseSegmentId(file.getFileName().toString());
+                if (id != null) {
+                    long size = Files.size(file);
+                    segments.put(id, size);
+                    totalBytes += size;
+                }
+            }
+        }
+
+        Path positionFile = directory.resolve(POSITION_FILE);
+        if (Files.exists(positionFile)) {
+            String[] parts = Files.readString(positionFile, StandardCharsets.US_ASCII).trim().split(":");
+            if (parts.length == 2) {
+                try {
+                    readSegmentId = Long.parseLong(parts[0]);
+                    readOffset = Long.parseLong(parts[1]);
+                } catch (NumberFormatException ignored) {
+                    // Start from the oldest segment
+                }
+            }
+        }
+        if (!segments.isEmpty() && !segments.containsKey(readSegmentId)) {
+            readSegmentId = segments.firstKey();
+            readOffset = 0;
+        }
+
+        // Always start writing to a fresh segment
+        activeSegmentId = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        openActiveSegment();
+    }
+
+    /**
+     * Append records to the spool, evicting the oldest segments if the size cap is exceeded
+     */
+    public synchronized void append(List<byte[]> records) throws IOException {
+        for (byte[] payload : records) {
+            if (segments.get(activeSegmentId) >= SEGMENT_MAX_BYTES) {
+                rollActiveSegment();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+            header.putInt(payload.length).putInt((int) crc.getValue()).flip();
+            ByteBuffer body = ByteBuffer.wrap(payload);
+            while (header.hasRemaining() || body.hasRemaining()) {
+                activeChannel.write(new ByteBuffer[]{header, body});
+            }
+
+            long written = RECORD_HEADER_BYTES + payload.length;
+            segments.merge(activeSegmentId, written, Long::sum);
+            totalBytes += written;
+        }
+        enforceSizeCap();
+    }
+
+    /**
+     * Read up to maxRecords / maxBytes from the head of the spool without removing them
+     *
+     * @return the records, or null if the spool is empty
+     */
+    public synchronized Batch read(int maxRecords, long maxBytes) throws IOException {
+        while (true) {
+            if (segments.isEmpty()) {
+                return null;
+            }
+            if (!segments.containsKey(readSegmentId)) {
+                readSegmentId = segments.firstKey();
+                readOffset = 0;
+            }
+
+            long segmentSize = segments.get(readSegmentId);
+            if (readOffset >= segmentSize) {
+                // Nothing more in the active segment yet
+                if (readSegmentId == activeSegmentId) {
+                    return null;
+                }
+                deleteSegment(readSegmentId);
+                continue;
+            }
+
+            List<byte[]> records = new ArrayList<>();
+            long offset = readOffset;
+            long bytes = 0;
+            try (FileChannel channel = FileChannel.open(segmentPath(readSegmentId), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+                while (records.size() < maxRecords && offset + RECORD_HEADER_BYTES <= segmentSize) {
+                    header.clear();
+                    readFully(channel, header, offset);
+                    header.flip();
+                    int length = header.getInt();
+                    int checksum = header.getInt();
+
+                    if (length < 0 || offset + RECORD_HEADER_BYTES + length > segmentSize) {
+                        break;
+                    }
+                    if (!records.isEmpty() && bytes + length > maxBytes) {
+                        return new Batch(records, readSegmentId, offset);
+                    }
+
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    readFully(channel, payload, offset + RECORD_HEADER_BYTES);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload.array());
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+
+                    records.add(payload.array());
+                    bytes += length;
+                    offset += RECORD_HEADER_BYTES + length;
+                }
+            }
+
+            if (!records.isEmpty()) {
+                return new Batch(records, readSegmentId, offset);
+            }
+
+            // A torn or corrupt record: the rest of this segment cannot be trusted
+            if (readSegmentId == activeSegmentId) {
+                return null;
+            }
+            corruptSegments.increment();
+            deleteSegment(readSegmentId);
+        }
+    }
+
+    /**
+     * Mark a batch returned by {@link #read} as delivered and checkpoint the read position
+     */
+    public synchronized void commit(Batch batch) throws IOException {
+        if (batch.segmentId() != readSegmentId || !segments.containsKey(readSegmentId)) {
+            // The segment was evicted while the batch was being delivered
+            return;
+        }
+        readOffset = batch.endOffset();
+        if (readOffset >= segments.get(readSegmentId) && readSegmentId != activeSegmentId) {
+            deleteSegment(readSegmentId);
+        }
+        writePosition();
+    }
+
+    /**
+     * Total bytes stored on disk, including already-replayed parts of the head segment
+     */
+    public synchronized long sizeBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Number of segments evicted because the spool was over its size cap
+     */
+    public long evictedSegmentCount() {
+        return evictedSegments.sum();
+    }
+
+    /**
+     * Number of segments abandoned because of a checksum mismatch
+     */
+    public long corruptSegmentCount() {
+        return corruptSegments.sum();
+    }
+
+    /**
+     * Flush the active segment to disk and close it
+     */
+    public synchronized void close() {
+        try {
+            activeChannel.force(false);
+            activeChannel.close();
+            writePosition();
+        } catch (IOException ignored) {
+            // Nothing more we can do while unloading
+        }
+    }
+
+    private void enforceSizeCap() throws IOException {
+        long maxBytes = settings.getSpoolMaxBytes();
+        while (totalBytes > maxBytes && segments.size() > 1) {
+            long oldest = segments.firstKey();
+            deleteSegment(oldest);
+            evictedSegments.increment();
+        }
+    }
+
+    private void rollActiveSegment() throws IOException {
+        activeChannel.force(false);
+        activeChannel.close();
+        activeSegmentId++;
+        openActiveSegment();
+    }
+
+    private void openActiveSegment() throws IOException {
+        activeChannel = FileChannel.open(segmentPath(activeSegmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segments.putIfAbsent(activeSegmentId, activeChannel.size());
+    }
+
+    private void deleteSegment(long id) throws IOException {
+        Long size = segments.remove(id);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        Files.deleteIfExists(segmentPath(id));
+        if (id == readSegmentId) {
+            readSegmentId = segments.isEmpty() ? activeSegmentId : segments.firstKey();
+            readOffset = 0;
+        }
+    }
+
+    /**
+     * Write the read checkpoint atomically
+     */
+    private void writePosition() throws IOException {
+        Path temp = directory.resolve(POSITION_FILE + ".tmp");
+        Files.writeString(temp, readSegmentId + ":" + readOffset, StandardCharsets.US_ASCII);
+        Files.move(temp, directory.resolve(POSITION_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private static Long parseSegmentId(String fileName) {
+        try {
+            return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of spool segment");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+import json.HeaderList;
+import json.JSONBody;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON serializer for {@link JSONBody.Traffic}.
+ * <p>
+ * Bodies are written straight from Burp's byte arrays into a reusable per-thread
+ * buffer, without building intermediate Strings. A body that is valid UTF-8 is
+ * written as a JSON string (only quotes, backslashes and control characters are
+ * escaped); anything else is written as base64, and the matching
+ * {@code requestBodyEncoding} / {@code responseBodyEncoding} field tells the server
+ * which one it got. A body the server already stores is replaced by its
+ * {@code *BodyHash} and a {@code *BodyOmitted} flag (see {@link BodyDeduplicator}).
+ * A body too large to inline carries {@code *BodyTransfer} ({@value #TRANSFER_TRUNCATED}
+ * with its first bytes, or {@value #TRANSFER_UPLOADED} with none, see {@link LargeBodies}),
+ * its {@code *BodyLength} and the hash of the whole body.
+ * <p>
+ * Headers are written as an object keyed by the first spelling of each name. A header
+ * that appears once maps to a string; a repeated one such as {@code Set-Cookie} maps
+ * to an array of its values in the order received.
+ */
+public final class TrafficSerializer {
+
+    public static final String ENCODING_UTF8 = "utf-8";
+    public static final String ENCODING_BASE64 = "base64";
+    public static final String TRANSFER_TRUNCATED = "truncated";
+    public static final String TRANSFER_UPLOADED = "uploaded";
+
+    // Buffers grown beyond this are not kept for reuse
+    private static final int RETAINED_BUFFER_LIMIT = 8 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] URL_PREFIX = "{\"url\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private final ThreadLocal<ByteSink> buffers = ThreadLocal.withInitial(() -> new ByteSink(INITIAL_BUFFER_SIZE));
+
+    /**
+     * Serialize a record to UTF-8 JSON
+     *
+     * @return a new array holding exactly the serialized record
+     */
+    public byte[] serialize(JSONBody.Traffic traffic) {
+        ByteSink sink = buffers.get();
+        sink.reset();
+        write(traffic, sink);
+        byte[] result = sink.toByteArray();
+        if (sink.capacity() > RETAINED_BUFFER_LIMIT) {
+            buffers.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Write a record as a JSON object
+     */
+    public void write(JSONBody.Traffic traffic, ByteSink out) {
+        out.write('{');
+        writeField(out, "url", traffic.url(), true);
+        writeField(out, "method", traffic.method(), false);
+        out.writeAscii(",\"statusCode\":");
+        out.writeAscii(Integer.toString(traffic.statusCode()));
+        writeHeaders(out, "requestHeaders", traffic.requestHeaders());
+        writeHeaders(out, "responseHeaders", traffic.responseHeaders());
+        writeBody(out, "requestBody", traffic.requestBody(), traffic.requestBodyHash(), traffic.requestBodyOmitted(),
+                traffic.requestBodyTransfer(), traffic.requestBodyLength());
+        writeBody(out, "responseBody", traffic.responseBody(), traffic.responseBodyHash(), traffic.responseBodyOmitted(),
+                traffic.responseBodyTransfer(), traffic.responseBodyLength());
+        writeField(out, "mimeType", traffic.mimeType(), false);
+        writeField(out, "toolSource", traffic.toolSource(), false);
+        writeField(out, "recordId", traffic.recordId(), false);
+        out.write('}');
+    }
+
+    /**
+     * Read back the URL of a record written by {@link #write}, which always comes first.
+     * Escape sequences are kept as is: they never occur before the end of the host.
+     *
+     * @return the URL, or null if the record does not start with one
+     */
+    public static String urlOf(byte[] record) {
+        int start = URL_PREFIX.length;
+        if (record.length < start || !Arrays.equals(record, 0, start, URL_PREFIX, 0, start)) {
+            return null;
+        }
+        for (int i = start; i < record.length; i++) {
+            if (record[i] == '\\') {
+                i++;
+            } else if (record[i] == '"') {
+                return new String(record, start, i - start, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void writeField(ByteSink out, String name, String value, boolean first) {
+        if (value == null) {
+            return;
+        }
+        if (!first) {
+            out.write(',');
+        }
+        out.write('"');
+        out.writeAscii(name);
+        out.writeAscii("\":");
+        writeString(out, value);
+    }
+
+    /**
+     * Write headers grouped by name (case-insensitive) without building an intermediate map.
+     * Header lists are short, so the quadratic scan is cheaper than hashing.
+     */
+    private static void writeHeaders(ByteSink out, String name, HeaderList headers) {
+        out.writeAscii(",\"");
+        out.writeAscii(name);
+        out.writeAscii("\":{");
+        int size = headers.size();
+        boolean first = true;
+        for (int i = 0; i < size; i++) {
+            String headerName = headers.name(i);
+            if (seenBefore(headers, headerName, i)) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            writeString(out, headerName);
+            out.write(':');
+
+            int next = nextWithName(headers, headerName, i + 1);
+            if (next < 0) {
+                writeString(out, headers.value(i));
+                continue;
+            }
+            out.write('[');
+            writeString(out, headers.value(i));
+            for (int j = next; j >= 0; j = nextWithName(headers, headerName, j + 1)) {
+                out.write(',');
+                writeString(out, headers.value(j));
+            }
+            out.write(']');
+        }
+        out.write('}');
+    }
+
+    private static boolean seenBefore(HeaderList headers, String name, int index) {
+        for (int i = 0; i < index; i++) {
+            if (headers.name(i).equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int nextWithName(HeaderList headers, String name, int from) {
+        for (int i = from; i < headers.size(); i++) {
+            if (headers.name(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeBody(ByteSink out, String name, byte[] body, String hash, boolean omitted,
+                                  String transfer, int length) {
+        if (hash != null) {
+            out.writeAscii(",\"");
+            out.writeAscii(name);
+            out.writeAscii("Hash\":\"");
+            out.writeAscii(hash);
+            out.write('"');
+        }
+        if (transfer != null) {
+            out.writeAscii(",\"");
+            out.writeAscii(name);
+            out.writeAscii("Transfer\":\"");
+            out.writeAscii(transfer);
+            out.writeAscii("\",\"");
+            out.writeAscii(name);
+            out.writeAscii("Length\":");
+            out.writeAscii(Integer.toString(length));
+        }
+        if (TRANSFER_UPLOADED.equals(transfer)) {
+            // Sent separately, under the record ID
+            return;
+        }
+        if (omitted) {
+            // The server already has this body: send the reference only
+            out.writeAscii(",\"");
+            out.writeAscii(name);
+            out.writeAscii("Omitted\":true");
+            return;
+        }
+
+        boolean utf8 = isValidUtf8(body);
+        out.writeAscii(",\"");
+        out.writeAscii(name);
+        out.writeAscii("\":");
+        if (utf8) {
+            writeUtf8Bytes(out, body);
+        } else {
+            writeBase64(out, body);
+        }
+        out.writeAscii(",\"");
+        out.writeAscii(name);
+        out.writeAscii("Encoding\":\"");
+        out.writeAscii(utf8 ? ENCODING_UTF8 : ENCODING_BASE64);
+        out.write('"');
+    }
+
+    /**
+     * Write a Java string as a JSON string, encoding it to UTF-8 on the fly
+     */
+    private static void writeString(ByteSink out, String value) {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                writeAsciiEscaped(out, c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.write(0xF0 | (codePoint >> 18));
+                out.write(0x80 | ((codePoint >> 12) & 0x3F));
+                out.write(0x80 | ((codePoint >> 6) & 0x3F));
+                out.write(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Lone surrogate: not representable in UTF-8
+                out.writeAscii("\\ufffd");
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Write bytes already known to be valid UTF-8 as a JSON string
+     */
+    private static void writeUtf8Bytes(ByteSink out, byte[] value) {
+        out.ensureCapacity(value.length + 2);
+        out.write('"');
+        int runStart = 0;
+        for (int i = 0; i < value.length; i++) {
+            int b = value[i] & 0xFF;
+            if (b >= 0x20 && b != '"' && b != '\\') {
+                continue;
+            }
+            out.write(value, runStart, i - runStart);
+            writeAsciiEscaped(out, (char) b);
+            runStart = i + 1;
+        }
+        out.write(value, runStart, value.length - runStart);
+        out.write('"');
+    }
+
+    private static void writeAsciiEscaped(ByteSink out, char c) {
+        switch (c) {
+            case '"' -> out.writeAscii("\\\"");
+            case '\\' -> out.writeAscii("\\\\");
+            case '\n' -> out.writeAscii("\\n");
+            case '\r' -> out.writeAscii("\\r");
+            case '\t' -> out.writeAscii("\\t");
+            default -> {
+                if (c < 0x20) {
+                    out.writeAscii("\\u00");
+                    out.write(HEX[c >> 4]);
+                    out.write(HEX[c & 0xF]);
+                } else {
+                    out.write(c);
+                }
+            }
+        }
+    }
+
+    private static void writeBase64(ByteSink out, byte[] value) {
+        out.ensureCapacity((value.length + 2) / 3 * 4 + 2);
+        out.write('"');
+        int i = 0;
+        for (; i + 2 < value.length; i += 3) {
+            int bits = (value[i] & 0xFF) << 16 | (value[i + 1] & 0xFF) << 8 | (value[i + 2] & 0xFF);
+            out.write(BASE64[bits >>> 18]);
+            out.write(BASE64[(bits >>> 12) & 0x3F]);
+            out.write(BASE64[(bits >>> 6) & 0x3F]);
+            out.write(BASE64[bits & 0x3F]);
+        }
+        int remaining = value.length - i;
+        if (remaining > 0) {
+            int bits = (value[i] & 0xFF) << 16 | (remaining == 2 ? (value[i + 1] & 0xFF) << 8 : 0);
+            out.write(BASE64[bits >>> 18]);
+            out.write(BASE64[(bits >>> 12) & 0x3F]);
+            out.write(remaining == 2 ? BASE64[(bits >>> 6) & 0x3F] : '=');
+            out.write('=');
+        }
+        out.write('"');
+    }
+
+    /**
+     * Strict UTF-8 validation (rejects overlong forms, surrogates and code points above U+10FFFF)
+     */
+    static boolean isValidUtf8(byte[] value) {
+        int i = 0;
+        int length = value.length;
+        while (i < length) {
+            int b = value[i];
+            if (b >= 0) {
+                i++;
+                continue;
+            }
+            b &= 0xFF;
+            if (b >= 0xC2 && b <= 0xDF) {
+                if (i + 1 >= length || !isContinuation(value[i + 1])) {
+                    return false;
+                }
+                i += 2;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                if (i + 2 >= length || !isContinuation(value[i + 1]) || !isContinuation(value[i + 2])) {
+                    return false;
+                }
+                int second = value[i + 1] & 0xFF;
+                if ((b == 0xE0 && second < 0xA0) || (b == 0xED && second > 0x9F)) {
+                    return false;
+                }
+                i += 3;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                if (i + 3 >= length || !isContinuation(value[i + 1]) || !isContinuation(value[i + 2])
+                        || !isContinuation(value[i + 3])) {
+                    return false;
+                }
+                int second = value[i + 1] & 0xFF;
+                if ((b == 0xF0 && second < 0x90) || (b == 0xF4 && second > 0x8F)) {
+                    return false;
+                }
+                i += 4;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * Growable byte buffer that can be reset and reused
+     */
+    public static final class ByteSink {
+        private byte[] buffer;
+        private int size;
+
+        public ByteSink(int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
+        }
+
+        public void reset() {
+            size = 0;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int capacity() {
+            return buffer.length;
+        }
+
+        /**
+         * Direct access to the internal buffer; only the first {@link #size()} bytes are valid
+         */
+        public byte[] array() {
+            return buffer;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        public void ensureCapacity(int additional) {
+            int required = size + additional;
+            if (required > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+            }
+        }
+
+        public void write(int b) {
+            if (size == buffer.length) {
+                ensureCapacity(1);
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        public void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        public void writeAscii(String value) {
+            ensureCapacity(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                buffer[size++] = (byte) value.charAt(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared HTTP transport for every call to the DeepBounty server.
+ * <p>
+ * A single {@link HttpClient} is used by both the ingest pipeline and scope sync, so
+ * connections (and TLS sessions) are pooled and reused. With HTTP/2 enabled the client
+ * negotiates h2 through ALPN and multiplexes concurrent requests over one connection,
+ * falling back to HTTP/1.1 when the server does not support it. Ingest requests are
+ * limited to a configurable number in flight.
+ * <p>
+ * The JDK client does not expose connection events, so reuse is reported from the
+ * responses: the protocol version each one used, and how often the TLS session changed
+ * from one response to the next (each new connection or full handshake shows up as a change).
+ * <p>
+ * Idle connections are kept for the JDK's default keep-alive time. It can only be changed
+ * through JVM-wide system properties read once, before the first client in the JVM (Burp's
+ * own included) is built, so the extension leaves it alone.
+ */
+public class Transport {
+
+    private final Settings settings;
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final Semaphore ingestPermits;
+
+    // Statistics
+    private final LongAdder http1Responses = new LongAdder();
+    private final LongAdder http2Responses = new LongAdder();
+    private final LongAdder tlsSessions = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAccumulator peakInFlight = new LongAccumulator(Math::max, 0);
+    private final AtomicReference<String> lastSession = new AtomicReference<>();
+
+    public Transport(Settings settings, Metrics metrics) {
+        this.settings = settings;
+
+        this.executor = Executors.newFixedThreadPool(2,
+                Thread.ofPlatform().name("deepbounty-http-", 0).daemon(true).factory());
+        this.httpClient = HttpClient.newBuilder()
+                .version(settings.isHttp2Enabled() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .executor(executor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.ingestPermits = new Semaphore(settings.getMaxConcurrentRequests(), true);
+
+        metrics.gauge("transport.http1Responses", this::getHttp1Responses);
+        metrics.gauge("transport.http2Responses", this::getHttp2Responses);
+        metrics.gauge("transport.tlsSessions", this::getTlsSessions);
+        metrics.gauge("transport.inFlight", this::getInFlight);
+        metrics.gauge("transport.peakInFlight", this::getPeakInFlight);
+    }
+
+    /**
+     * Start a request with the configured timeout and API key
+     */
+    public HttpRequest.Builder newRequest(String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofSeconds(settings.getRequestTimeoutSeconds()))
+                .header("Authorization", "Bearer " + settings.getBurpsuiteKey());
+    }
+
+    /**
+     * Send an ingest request, waiting for a free slot if the concurrency limit is reached
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        ingestPermits.acquire();
+        try {
+            return sendControl(request, handler);
+        } finally {
+            ingestPermits.release();
+        }
+    }
+
+    /**
+     * Send a control request (scope sync) outside the ingest concurrency limit
+     */
+    public <T> HttpResponse<T> sendControl(HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        peakInFlight.accumulate(inFlight.incrementAndGet());
+        try {
+            HttpResponse<T> response = httpClient.send(request, handler);
+            record(response);
+            return response;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void record(HttpResponse<?> response) {
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.increment();
+        } else {
+            http1Responses.increment();
+        }
+        response.sslSession().ifPresent(session -> {
+            // Only changes are counted, so nothing grows with the number of sessions
+            String id = HexFormat.of().formatHex(session.getId());
+            if (!id.equals(lastSession.getAndSet(id))) {
+                tlsSessions.increment();
+            }
+        });
+    }
+
+    /**
+     * Human-readable connection statistics, logged on unload
+     */
+    public String statsSummary() {
+        long responses = http1Responses.sum() + http2Responses.sum();
+        long sessions = tlsSessions.sum();
+        return "responses=" + responses
+                + ", http/1.1=" + http1Responses.sum()
+                + ", h2=" + http2Responses.sum()
+                + ", tlsSessions=" + sessions
+                + ", requestsPerTlsSession=" + (sessions == 0 ? "n/a" : String.format("%.1f", responses / (double) sessions))
+                + ", inFlight=" + inFlight.get()
+                + ", peakInFlight=" + peakInFlight.get();
+    }
+
+    public long getHttp1Responses() {
+        return http1Responses.sum();
+    }
+
+    public long getHttp2Responses() {
+        return http2Responses.sum();
+    }
+
+    public long getTlsSessions() {
+        return tlsSessions.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * Close the client's connections and release its threads
+     */
+    public void shutdown() {
+        httpClient.shutdownNow();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,48 @@
+package json;
+
+/**
+ * Ordered list of HTTP headers, kept exactly as received.
+ * <p>
+ * Names and values are stored in two parallel arrays, so repeated headers such as
+ * {@code Set-Cookie} stay separate entries in their original order. Instances are
+ * immutable by convention: the arrays passed to the constructor are not copied and
+ * must not be modified afterwards.
+ */
+public final class HeaderList {
+
+    public static final HeaderList EMPTY = new HeaderList(new String[0], new String[0]);
+
+    private final String[] names;
+    private final String[] values;
+
+    public HeaderList(String[] names, String[] values) {
+        if (names.length != values.length) {
+            throw new IllegalArgumentException("Got " + names.length + " header names but " + values.length + " values");
+        }
+        this.names = names;
+        this.values = values;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+
+    public String value(int index) {
+        return values[index];
+    }
+
+    /**
+     * Total length of all names and values, in chars
+     */
+    public long textLength() {
+        long length = 0;
+        for (int i = 0; i < names.length; i++) {
+            length += names[i].length() + values[i].length();
+        }
+        return length;
+    }
+}
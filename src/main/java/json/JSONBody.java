@@ -4,13 +4,14 @@ import com.google.gson.annotations.SerializedName;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Container class for JSON body objects used by the DeepBounty API
  */
 public final class JSONBody {
 
+    private static final byte[] EMPTY_BODY = new byte[0];
+
     // Private constructor to prevent instantiation
     private JSONBody() {
         throw new UnsupportedOperationException("Utility class cannot be instantiated");
@@ -53,35 +54,112 @@ public final class JSONBody {
     }
 
     /**
-     * Request object for sending traffic data to the server
+     * Response object for the incremental scope endpoint
+     * JSON format: {"version": 124, "added": ["new.example.com"], "removed": ["*.old.example.com"]}
+     */
+    public static class ScopeDeltaResponse {
+        @SuppressWarnings("unused") // Assigned by Gson via reflection
+        @SerializedName("version")
+        private int version;
+
+        @SuppressWarnings("unused") // Assigned by Gson via reflection
+        @SerializedName("added")
+        private List<String> added;
+
+        @SuppressWarnings("unused") // Assigned by Gson via reflection
+        @SerializedName("removed")
+        private List<String> removed;
+
+        public int getVersion() {
+            return version;
+        }
+
+        public List<String> getAdded() {
+            return added != null ? added : Collections.emptyList();
+        }
+
+        public List<String> getRemoved() {
+            return removed != null ? removed : Collections.emptyList();
+        }
+    }
+
+    /**
+     * Response object for the ingest endpoints
+     * JSON format: {"missing": ["<sha256>", ...]} listing referenced bodies the server does not have
+     */
+    public static class IngestAck {
+        @SuppressWarnings("unused") // Assigned by Gson via reflection
+        @SerializedName("missing")
+        private List<String> missing;
+
+        public List<String> getMissing() {
+            return missing != null ? missing : Collections.emptyList();
+        }
+
+        /**
+         * Whether the server resolves hash-only body references: it says so by sending
+         * a {@code missing} list, even an empty one
+         */
+        public boolean supportsReferences() {
+            return missing != null;
+        }
+    }
+
+    /**
+     * Request object for sending traffic data to the server.
+     * Serialized by TrafficSerializer (or BinaryTrafficCodec), never by Gson: the wire field
+     * names are defined there. Bodies are raw bytes and are sent as UTF-8 text when valid,
+     * base64 otherwise (see the *BodyEncoding fields on the wire).
      *
      * @param url             The request URL
      * @param method          The HTTP method
      * @param statusCode      The HTTP status code
-     * @param requestHeaders  The request headers
-     * @param responseHeaders The response headers
-     * @param requestBody     The request body
-     * @param responseBody    The response body
+     * @param requestHeaders  The request headers, in order, repeated names included
+     * @param responseHeaders The response headers, in order, repeated names included
+     * @param requestBody     The raw request body
+     * @param responseBody    The raw response body
      * @param mimeType        The MIME type
+     * @param requestBodyHash     SHA-256 of the request body, or null if not deduplicated
+     * @param responseBodyHash    SHA-256 of the response body, or null if not deduplicated
+     * @param requestBodyOmitted  Whether the request body is sent as a hash reference only (its bytes
+     *                            are kept, unsent, in case the server reports it missing)
+     * @param responseBodyOmitted Whether the response body is sent as a hash reference only (same)
+     * @param toolSource          The Burp tool that issued the request (e.g. PROXY, INTRUDER)
+     * @param recordId            Key of the bodies uploaded separately, or null if there are none
+     * @param requestBodyTransfer  How a request body too large to inline was sent ("truncated" or
+     *                             "uploaded"), or null if it is inline
+     * @param responseBodyTransfer Same for the response body
+     * @param requestBodyLength    Original length of a request body that is not inline, 0 otherwise
+     * @param responseBodyLength   Same for the response body
      */
     public record Traffic(
-            @SerializedName("url") String url,
-            @SerializedName("method") String method,
-            @SerializedName("statusCode") int statusCode,
-            @SerializedName("requestHeaders") Map<String, String> requestHeaders,
-            @SerializedName("responseHeaders") Map<String, String> responseHeaders,
-            @SerializedName("requestBody") String requestBody,
-            @SerializedName("responseBody") String responseBody,
-            @SerializedName("mimeType") String mimeType
+            String url,
+            String method,
+            int statusCode,
+            HeaderList requestHeaders,
+            HeaderList responseHeaders,
+            byte[] requestBody,
+            byte[] responseBody,
+            String mimeType,
+            String requestBodyHash,
+            String responseBodyHash,
+            boolean requestBodyOmitted,
+            boolean responseBodyOmitted,
+            String toolSource,
+            String recordId,
+            String requestBodyTransfer,
+            String responseBodyTransfer,
+            int requestBodyLength,
+            int responseBodyLength
     ) {
         /**
          * Compact constructor with null-safe defaults
          */
         public Traffic {
-            requestHeaders = requestHeaders != null ? requestHeaders : Collections.emptyMap();
-            responseHeaders = responseHeaders != null ? responseHeaders : Collections.emptyMap();
-            requestBody = requestBody != null ? requestBody : "";
-            responseBody = responseBody != null ? responseBody : "";
+            requestHeaders = requestHeaders != null ? requestHeaders : HeaderList.EMPTY;
+            responseHeaders = responseHeaders != null ? responseHeaders : HeaderList.EMPTY;
+            requestBody = requestBody != null ? requestBody : EMPTY_BODY;
+            responseBody = responseBody != null ? responseBody : EMPTY_BODY;
         }
     }
 }